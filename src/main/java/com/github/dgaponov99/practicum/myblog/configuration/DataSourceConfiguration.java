@@ -1,48 +1,109 @@
 package com.github.dgaponov99.practicum.myblog.configuration;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
 import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
 
 @Configuration
+@EnableTransactionManagement
 public class DataSourceConfiguration {
 
     @Bean
+    @Primary
     public DataSource dataSource(
             @Value("${spring.datasource.driverClassName:org.postgresql.Driver}") String driverClassName,
             @Value("${spring.datasource.url}") String url,
             @Value("${spring.datasource.username}") String username,
-            @Value("${spring.datasource.password}") String password
-    ) {
-        var dataSource = new DriverManagerDataSource();
-        dataSource.setDriverClassName(driverClassName);
-        dataSource.setUrl(url);
-        dataSource.setUsername(username);
-        dataSource.setPassword(password);
+            @Value("${spring.datasource.password}") String password,
+            @Value("${spring.datasource.pool.maximum-size:10}") int maximumPoolSize,
+            @Value("${spring.datasource.pool.minimum-idle:2}") int minimumIdle,
+            @Value("${spring.datasource.pool.connection-timeout-ms:30000}") long connectionTimeout,
+            @Value("${spring.datasource.pool.leak-detection-threshold-ms:0}") long leakDetectionThreshold,
+            MeterRegistry meterRegistry
+    ) throws SQLException {
+        var config = new HikariConfig();
+        config.setPoolName("my-blog");
+        config.setDriverClassName(driverClassName);
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMaximumPoolSize(maximumPoolSize);
+        config.setMinimumIdle(minimumIdle);
+        config.setConnectionTimeout(connectionTimeout);
+        config.setLeakDetectionThreshold(leakDetectionThreshold);
+        config.setMetricRegistry(meterRegistry);
+        config.addDataSourceProperty("reWriteBatchedInserts", "true");
+
+        var dataSource = new HikariDataSource(config);
+        // Hikari сам урезает minimumIdle до размера пула, а больше соединений, чем в пуле, не дождаться
+        warmUp(dataSource, Math.min(minimumIdle, maximumPoolSize));
 
         return dataSource;
     }
 
+    // Соединение берётся из пула только при первом запросе внутри транзакции
+    @Bean
+    public LazyConnectionDataSourceProxy lazyConnectionDataSource(DataSource dataSource) {
+        return new LazyConnectionDataSourceProxy(dataSource);
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate(LazyConnectionDataSourceProxy lazyConnectionDataSource) {
+        return new JdbcTemplate(lazyConnectionDataSource);
+    }
+
     @Bean
-    public JdbcTemplate jdbcTemplate(DataSource dataSource) {
-        return new JdbcTemplate(dataSource);
+    public PlatformTransactionManager transactionManager(LazyConnectionDataSourceProxy lazyConnectionDataSource) {
+        return new DataSourceTransactionManager(lazyConnectionDataSource);
     }
 
     @EventListener
+    @Order(Ordered.HIGHEST_PRECEDENCE)
     public void populate(ContextRefreshedEvent event) {
         var dataSource = event.getApplicationContext().getBean(DataSource.class);
 
         var resourceDatabasePopulator = new ResourceDatabasePopulator();
         resourceDatabasePopulator.addScript(new ClassPathResource("schema.sql"));
         resourceDatabasePopulator.execute(dataSource);
+
+        // Миграция — один блок do $$ ... $$, его нельзя делить по ';'
+        var migrationPopulator = new ResourceDatabasePopulator(new ClassPathResource("comments-count-migration.sql"));
+        migrationPopulator.setSeparator(ScriptUtils.EOF_STATEMENT_SEPARATOR);
+        migrationPopulator.execute(dataSource);
+    }
+
+    private void warmUp(DataSource dataSource, int connectionCount) throws SQLException {
+        var connections = new ArrayList<Connection>(connectionCount);
+        try {
+            for (int i = 0; i < connectionCount; i++) {
+                connections.add(dataSource.getConnection());
+            }
+        } finally {
+            for (var connection : connections) {
+                connection.close();
+            }
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -1,9 +1,13 @@
 package com.github.dgaponov99.practicum.myblog.configuration;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.validation.Validator;
 import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -15,11 +19,43 @@ public class WebConfiguration implements WebMvcConfigurer {
 
     private final LocalValidatorFactoryBean validator;
 
+    @Value("${web.async.timeout-ms:600000}")
+    private long asyncTimeoutMillis;
+
+    @Value("${web.async.threads:4}")
+    private int asyncThreads;
+
+    @Value("${web.async.queue-capacity:100}")
+    private int asyncQueueCapacity;
+
+    @Value("${spring.datasource.pool.maximum-size:10}")
+    private int maximumPoolSize;
+
     @Override
     public Validator getValidator() {
         return validator;
     }
 
+    // Потоковые ответы (выгрузка постов, поток комментариев) пишутся дольше стандартного таймаута контейнера
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(asyncTimeoutMillis);
+        configurer.setTaskExecutor(webAsyncTaskExecutor());
+    }
+
+    // Каждый потоковый ответ держит соединение с открытым курсором до конца выдачи, поэтому одновременно
+    // их меньше, чем соединений в пуле: остальные ждут в очереди, а обычные запросы не остаются без соединения
+    @Bean
+    public ThreadPoolTaskExecutor webAsyncTaskExecutor() {
+        var threads = Math.max(1, Math.min(asyncThreads, maximumPoolSize - 1));
+        var executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("web-async-");
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(asyncQueueCapacity);
+        return executor;
+    }
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
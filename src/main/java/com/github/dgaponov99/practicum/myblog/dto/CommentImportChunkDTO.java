@@ -0,0 +1,19 @@
+package com.github.dgaponov99.practicum.myblog.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CommentImportChunkDTO {
+
+    private int chunk;
+    private long firstLine;
+    private long lastLine;
+    private int imported;
+    private int rejected;
+    private String error;
+
+}
@@ -0,0 +1,17 @@
+package com.github.dgaponov99.practicum.myblog.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.core.io.Resource;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageDTO {
+
+    private Resource resource;
+    private String contentType;
+    private ImageVariant variant;
+
+}
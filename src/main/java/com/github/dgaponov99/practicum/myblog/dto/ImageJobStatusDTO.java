@@ -0,0 +1,22 @@
+package com.github.dgaponov99.practicum.myblog.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageJobStatusDTO {
+
+    private UUID imageUuid;
+    private State state;
+    private String error;
+
+    public enum State {
+        QUEUED, PROCESSING, DONE, FAILED
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.github.dgaponov99.practicum.myblog.dto;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+public enum ImageVariant {
+
+    ORIGINAL("original", 0),
+    MEDIUM("medium", 800),
+    THUMB("thumb", 200);
+
+    private final String name;
+    private final int maxWidth;
+
+    ImageVariant(String name, int maxWidth) {
+        this.name = name;
+        this.maxWidth = maxWidth;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    public static Optional<ImageVariant> fromName(String name) {
+        return Arrays.stream(values())
+                .filter(variant -> variant.name.equalsIgnoreCase(name))
+                .findFirst();
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.github.dgaponov99.practicum.myblog.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MeterDTO {
+
+    private String name;
+    private Map<String, String> tags;
+    private Map<String, Double> measurements;
+
+}
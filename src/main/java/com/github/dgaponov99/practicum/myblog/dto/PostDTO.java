@@ -17,5 +17,7 @@ public class PostDTO {
     private Set<String> tags;
     private int likesCount;
     private int commentsCount;
+    // Адрес картинки с её версией, отдаётся с долгим кэшированием; пустой, если картинки нет
+    private String imageUrl;
 
 }
@@ -0,0 +1,19 @@
+package com.github.dgaponov99.practicum.myblog.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PostImportResultDTO {
+
+    private int batches;
+    private long importedPosts;
+    private long importedComments;
+    private long rejectedPosts;
+    private long rejectedComments;
+    private String error;
+
+}
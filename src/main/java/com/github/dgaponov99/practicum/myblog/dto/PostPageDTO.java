@@ -15,5 +15,6 @@ public class PostPageDTO {
     private boolean hasPrev;
     private boolean hasNext;
     private int lastPage;
+    private String nextCursor;
 
 }
@@ -1,6 +1,7 @@
 package com.github.dgaponov99.practicum.myblog.dto.data;
 
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -11,6 +12,7 @@ import lombok.NoArgsConstructor;
 public class CommentDataDTO {
 
     @NotBlank(message = "Отсутствует текс комментария")
+    @Size(max = 512, message = "Текст комментария длиннее 512 символов")
     private String text;
 
 }
@@ -2,6 +2,7 @@ package com.github.dgaponov99.practicum.myblog.dto.data;
 
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -15,9 +16,11 @@ import java.util.Set;
 public class PostDataDTO {
 
     @NotBlank(message = "Отсутствует заголовок поста")
+    @Size(max = 256, message = "Заголовок поста длиннее 256 символов")
     private String title;
     @NotBlank(message = "Отсутствует тело поста")
+    @Size(max = 4000, message = "Тело поста длиннее 4000 символов")
     private String text;
-    private Set<String> tags = new HashSet<>();
+    private Set<@Size(max = 256, message = "Тег длиннее 256 символов") String> tags = new HashSet<>();
 
 }
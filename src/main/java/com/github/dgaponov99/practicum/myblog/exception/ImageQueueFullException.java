@@ -0,0 +1,9 @@
+package com.github.dgaponov99.practicum.myblog.exception;
+
+public class ImageQueueFullException extends Exception {
+
+    public ImageQueueFullException(int capacity) {
+        super("Image processing queue is full (capacity " + capacity + ")");
+    }
+
+}
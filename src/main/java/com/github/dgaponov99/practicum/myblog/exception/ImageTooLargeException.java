@@ -0,0 +1,9 @@
+package com.github.dgaponov99.practicum.myblog.exception;
+
+public class ImageTooLargeException extends Exception {
+
+    public ImageTooLargeException(long maxSize) {
+        super("Image exceeds max size of " + maxSize + " bytes");
+    }
+
+}
@@ -0,0 +1,9 @@
+package com.github.dgaponov99.practicum.myblog.exception;
+
+public class InvalidCursorException extends Exception {
+
+    public InvalidCursorException(String cursor) {
+        super("Cursor " + cursor + " is invalid");
+    }
+
+}
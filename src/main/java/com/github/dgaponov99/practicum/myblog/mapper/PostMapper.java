@@ -4,10 +4,16 @@ import com.github.dgaponov99.practicum.myblog.configuration.MapstructConfigurati
 import com.github.dgaponov99.practicum.myblog.dto.PostDTO;
 import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 
 @Mapper(config = MapstructConfiguration.class)
 public abstract class PostMapper {
 
+    @Mapping(target = "imageUrl", expression = "java(toImageUrl(post))")
     public abstract PostDTO toDTO(Post post);
 
+    protected String toImageUrl(Post post) {
+        return post.getImageUuid() == null ? null : "/api/posts/%d/image?v=%s".formatted(post.getId(), post.getImageUuid());
+    }
+
 }
@@ -0,0 +1,21 @@
+package com.github.dgaponov99.practicum.myblog.persistence.entity;
+
+import lombok.*;
+
+import java.util.UUID;
+
+@Getter
+@Setter
+@ToString
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class Image {
+
+    @EqualsAndHashCode.Include
+    private UUID uuid;
+    private String contentType;
+    private long size;
+    private String sha256;
+
+}
@@ -19,6 +19,7 @@ public class Post {
     private String title;
     private String text;
     private int likesCount;
+    private int commentsCount;
     private UUID imageUuid;
 
     private Set<String> tags;
@@ -0,0 +1,17 @@
+package com.github.dgaponov99.practicum.myblog.persistence.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+@Getter
+@ToString
+@AllArgsConstructor
+public class PostSlice {
+
+    private final List<Post> posts;
+    private final int totalCount;
+
+}
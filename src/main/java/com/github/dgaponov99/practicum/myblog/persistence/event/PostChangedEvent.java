@@ -0,0 +1,4 @@
+package com.github.dgaponov99.practicum.myblog.persistence.event;
+
+public record PostChangedEvent(Long postId) {
+}
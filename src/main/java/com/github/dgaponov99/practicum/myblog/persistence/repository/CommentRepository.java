@@ -4,6 +4,7 @@ import com.github.dgaponov99.practicum.myblog.persistence.entity.Comment;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface CommentRepository {
 
@@ -13,9 +14,17 @@ public interface CommentRepository {
 
     List<Comment> findByPostId(Long postId);
 
-    Comment create(Long postId, String text);
+    List<Comment> findByPostIdAfter(Long postId, Long afterCommentId, int limit);
 
-    void update(Long id, String text);
+    void streamByPostId(Long postId, Consumer<Comment> consumer);
+
+    Optional<Comment> create(Long postId, String text);
+
+    Optional<Comment> update(Long postId, Long id, String text);
+
+    int copyAll(Long postId, List<String> texts);
+
+    int copyAll(List<Comment> comments);
 
     void deleteById(Long id);
 
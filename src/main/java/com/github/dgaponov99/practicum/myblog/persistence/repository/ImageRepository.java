@@ -0,0 +1,32 @@
+package com.github.dgaponov99.practicum.myblog.persistence.repository;
+
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Image;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+public interface ImageRepository {
+
+    Optional<Image> findByUuid(UUID uuid);
+
+    void create(Image image);
+
+    Optional<Image> deleteByUuid(UUID uuid);
+
+    boolean releaseBlob(String sha256);
+
+    boolean deleteUnusedBlob(String sha256);
+
+    List<UUID> findUnreferencedUuids(Instant createdBefore, UUID afterUuid, int limit);
+
+    Optional<Image> deleteUnreferencedByUuid(UUID uuid);
+
+    Set<String> findExistingBlobs(Collection<String> sha256s);
+
+    Set<UUID> findReferencedUuids(Collection<UUID> uuids);
+
+}
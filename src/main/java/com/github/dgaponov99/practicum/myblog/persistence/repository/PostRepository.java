@@ -1,28 +1,50 @@
 package com.github.dgaponov99.practicum.myblog.persistence.repository;
 
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Comment;
 import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.PostSlice;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public interface PostRepository {
 
     List<Post> findAll(String title, Set<String> tags, int size, int offset);
 
+    PostSlice findAllWithTotal(String title, Set<String> tags, int size, int offset);
+
+    PostSlice findAllByFullText(String query, Set<String> tags, int size, int offset);
+
+    List<Post> findAllAfter(String title, Set<String> tags, int size, Long afterPostId);
+
     int count(String title, Set<String> tags);
 
+    void streamAllWithComments(Consumer<Post> postConsumer, Consumer<Comment> commentConsumer);
+
     Optional<Post> findById(Long id);
 
+    Optional<Long> findVersionById(Long id);
+
     Post create(String title, String text, Set<String> tags);
 
+    List<Long> createAll(List<Post> posts);
+
     void update(Long id, String title, String text, Set<String> tags);
 
     void updateImageUuid(Long id, UUID imageUuid);
 
-    void incrementLikes(Long id);
+    boolean replaceImageUuid(Long id, UUID expectedImageUuid, UUID imageUuid);
+
+    Optional<Integer> incrementLikes(Long id);
+
+    void addLikes(Map<Long, Integer> likeDeltas);
 
     void deleteById(Long id);
 
+    int reconcileCommentsCount();
+
 }
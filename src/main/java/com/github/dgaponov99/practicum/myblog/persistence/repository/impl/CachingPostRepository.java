@@ -0,0 +1,172 @@
+package com.github.dgaponov99.practicum.myblog.persistence.repository.impl;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Comment;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.PostSlice;
+import com.github.dgaponov99.practicum.myblog.persistence.event.PostChangedEvent;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Consumer;
+
+@Primary
+@Repository
+public class CachingPostRepository implements PostRepository {
+
+    private final PostRepository delegate;
+    private final boolean enabled;
+    private final LoadingCache<Long, Optional<Post>> cache;
+
+    public CachingPostRepository(@Qualifier("postJdbcRepository") PostRepository delegate,
+                                 @Value("${posts.cache.enabled:false}") boolean enabled,
+                                 @Value("${posts.cache.max-size:10000}") long maxSize,
+                                 @Value("${posts.cache.ttl-seconds:300}") long ttlSeconds,
+                                 MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build(delegate::findById);
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "post");
+    }
+
+    @Override
+    public List<Post> findAll(String title, Set<String> tags, int size, int offset) {
+        return delegate.findAll(title, tags, size, offset);
+    }
+
+    @Override
+    public PostSlice findAllWithTotal(String title, Set<String> tags, int size, int offset) {
+        return delegate.findAllWithTotal(title, tags, size, offset);
+    }
+
+    @Override
+    public PostSlice findAllByFullText(String query, Set<String> tags, int size, int offset) {
+        return delegate.findAllByFullText(query, tags, size, offset);
+    }
+
+    @Override
+    public List<Post> findAllAfter(String title, Set<String> tags, int size, Long afterPostId) {
+        return delegate.findAllAfter(title, tags, size, afterPostId);
+    }
+
+    @Override
+    public int count(String title, Set<String> tags) {
+        return delegate.count(title, tags);
+    }
+
+    @Override
+    public void streamAllWithComments(Consumer<Post> postConsumer, Consumer<Comment> commentConsumer) {
+        delegate.streamAllWithComments(postConsumer, commentConsumer);
+    }
+
+    @Override
+    public Optional<Post> findById(Long id) {
+        if (!enabled) {
+            return delegate.findById(id);
+        }
+        return cache.get(id).map(this::copy);
+    }
+
+    @Override
+    public Optional<Long> findVersionById(Long id) {
+        return delegate.findVersionById(id);
+    }
+
+    @Override
+    public Post create(String title, String text, Set<String> tags) {
+        var post = delegate.create(title, text, tags);
+        evict(post.getId());
+        return post;
+    }
+
+    @Override
+    public List<Long> createAll(List<Post> posts) {
+        var postIds = delegate.createAll(posts);
+        postIds.forEach(this::evict);
+        return postIds;
+    }
+
+    @Override
+    public void update(Long id, String title, String text, Set<String> tags) {
+        delegate.update(id, title, text, tags);
+        evict(id);
+    }
+
+    @Override
+    public void updateImageUuid(Long id, UUID imageUuid) {
+        delegate.updateImageUuid(id, imageUuid);
+        evict(id);
+    }
+
+    @Override
+    public boolean replaceImageUuid(Long id, UUID expectedImageUuid, UUID imageUuid) {
+        var replaced = delegate.replaceImageUuid(id, expectedImageUuid, imageUuid);
+        evict(id);
+        return replaced;
+    }
+
+    @Override
+    public Optional<Integer> incrementLikes(Long id) {
+        var likesCount = delegate.incrementLikes(id);
+        evict(id);
+        return likesCount;
+    }
+
+    @Override
+    public void addLikes(Map<Long, Integer> likeDeltas) {
+        delegate.addLikes(likeDeltas);
+        likeDeltas.keySet().forEach(this::evict);
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        delegate.deleteById(id);
+        evict(id);
+    }
+
+    @Override
+    public int reconcileCommentsCount() {
+        var reconciledCount = delegate.reconcileCommentsCount();
+        cache.invalidateAll();
+        return reconciledCount;
+    }
+
+    @EventListener
+    public void onPostChanged(PostChangedEvent event) {
+        evict(event.postId());
+    }
+
+    private void evict(Long id) {
+        cache.invalidate(id);
+        // Повторная инвалидация после завершения транзакции, чтобы не оставить в кэше незакоммиченное состояние
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.invalidate(id);
+                }
+            });
+        }
+    }
+
+    private Post copy(Post post) {
+        return new Post(post.getId(), post.getTitle(), post.getText(), post.getLikesCount(), post.getCommentsCount(),
+                post.getImageUuid(), new HashSet<>(post.getTags()), post.isDeleted());
+    }
+
+}
@@ -1,24 +1,38 @@
 package com.github.dgaponov99.practicum.myblog.persistence.repository.impl;
 
 import com.github.dgaponov99.practicum.myblog.persistence.entity.Comment;
+import com.github.dgaponov99.practicum.myblog.persistence.event.PostChangedEvent;
 import com.github.dgaponov99.practicum.myblog.persistence.repository.CommentRepository;
-import lombok.RequiredArgsConstructor;
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Repository
-@RequiredArgsConstructor
 public class CommentJdbcRepository implements CommentRepository {
 
     private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int streamFetchSize;
 
+    public CommentJdbcRepository(JdbcTemplate jdbcTemplate,
+                                 ApplicationEventPublisher eventPublisher,
+                                 @Value("${posts.comments.stream.fetch-size:500}") int streamFetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.eventPublisher = eventPublisher;
+        this.streamFetchSize = streamFetchSize;
+    }
 
     @Override
     public Optional<Comment> findById(Long id) {
@@ -33,31 +47,133 @@ public class CommentJdbcRepository implements CommentRepository {
 
     @Override
     public List<Comment> findByPostId(Long postId) {
-        return jdbcTemplate.query("select comment_id, post_id, text, deleted from comments where not deleted and post_id = ?;",
+        return jdbcTemplate.query("select comment_id, post_id, text, deleted from comments where not deleted and post_id = ? order by comment_id;",
                 (rs, rowNum) -> mapRow(rs), postId);
     }
 
     @Override
-    public Comment create(Long postId, String text) {
-        var keyHolder = new GeneratedKeyHolder();
-        jdbcTemplate.update(connection -> {
-            var statement = connection.prepareStatement("insert into comments (post_id, text) values (?, ?);", Statement.RETURN_GENERATED_KEYS);
-            statement.setLong(1, postId);
-            statement.setString(2, text);
-            return statement;
-        }, keyHolder);
-        var commentId = (long) keyHolder.getKeys().get("comment_id");
-        return findById(commentId).get();
+    public List<Comment> findByPostIdAfter(Long postId, Long afterCommentId, int limit) {
+        return jdbcTemplate.query("""
+                        select comment_id, post_id, text, deleted
+                        from comments
+                        where not deleted and post_id = ? and comment_id > ?
+                        order by comment_id
+                        limit ?;
+                        """,
+                (rs, rowNum) -> mapRow(rs), postId, afterCommentId == null ? 0 : afterCommentId, limit);
     }
 
     @Override
-    public void update(Long id, String text) {
-        jdbcTemplate.update("update comments set text = ? where post_id = ?;", text, id);
+    public void streamByPostId(Long postId, Consumer<Comment> consumer) {
+        // Драйвер Postgres читает строки порциями по fetchSize только внутри транзакции
+        jdbcTemplate.query(con -> {
+                    var ps = con.prepareStatement("select comment_id, post_id, text, deleted from comments where not deleted and post_id = ? order by comment_id;",
+                            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    ps.setFetchSize(streamFetchSize);
+                    ps.setLong(1, postId);
+                    return ps;
+                },
+                rs -> {
+                    consumer.accept(mapRow(rs));
+                });
+    }
+
+    @Override
+    public Optional<Comment> create(Long postId, String text) {
+        // Наличие неудалённого поста проверяется в самой вставке: нет поста — нет строки
+        var comment = jdbcTemplate.query("""
+                        with inserted as (
+                            insert into comments (post_id, text)
+                            select post_id, ? from posts where post_id = ? and not deleted
+                            returning comment_id, post_id, text, deleted
+                        ), counted as (
+                            update posts set comments_count = comments_count + 1, version = nextval('content_version_seq')
+                            where post_id = (select post_id from inserted)
+                        )
+                        select comment_id, post_id, text, deleted from inserted;
+                        """,
+                (rs, rowNum) -> mapRow(rs), text, postId).stream().findFirst();
+        comment.ifPresent(created -> eventPublisher.publishEvent(new PostChangedEvent(created.getPostId())));
+        return comment;
+    }
+
+    @Override
+    public Optional<Comment> update(Long postId, Long id, String text) {
+        // Версия поста служит валидатором списка комментариев, поэтому правка комментария её тоже меняет
+        return jdbcTemplate.query("""
+                        with updated as (
+                            update comments set text = ?
+                            where comment_id = ? and post_id = ? and not deleted
+                            returning comment_id, post_id, text, deleted
+                        ), versioned as (
+                            update posts set version = nextval('content_version_seq')
+                            where post_id = (select post_id from updated)
+                        )
+                        select comment_id, post_id, text, deleted from updated;
+                        """,
+                (rs, rowNum) -> mapRow(rs), text, id, postId).stream().findFirst();
+    }
+
+    @Override
+    @Transactional
+    public int copyAll(Long postId, List<String> texts) {
+        // Строка поста блокируется до конца транзакции, поэтому пост не удалят посреди загрузки
+        if (jdbcTemplate.update("update posts set comments_count = comments_count + ?, version = nextval('content_version_seq') where post_id = ? and not deleted;",
+                texts.size(), postId) == 0) {
+            return 0;
+        }
+        var csv = new StringBuilder();
+        for (var text : texts) {
+            appendCsvRow(csv, postId, text);
+        }
+        var copied = copyIn(csv);
+        eventPublisher.publishEvent(new PostChangedEvent(postId));
+        return copied;
+    }
+
+    @Override
+    public int copyAll(List<Comment> comments) {
+        // Счётчики комментариев не меняются: их задают при вставке постов вместе с комментариями
+        if (comments.isEmpty()) {
+            return 0;
+        }
+        var csv = new StringBuilder();
+        for (var comment : comments) {
+            appendCsvRow(csv, comment.getPostId(), comment.getText());
+        }
+        return copyIn(csv);
     }
 
     @Override
     public void deleteById(Long id) {
-        jdbcTemplate.update("update comments set deleted = true where comment_id = ?;", id);
+        var postIds = jdbcTemplate.queryForList("""
+                with deleted as (
+                    update comments set deleted = true
+                    where comment_id = ? and not deleted
+                    returning post_id
+                ), counted as (
+                    update posts set comments_count = comments_count - 1, version = nextval('content_version_seq')
+                    where post_id in (select post_id from deleted)
+                )
+                select post_id from deleted;
+                """, Long.class, id);
+        postIds.forEach(postId -> eventPublisher.publishEvent(new PostChangedEvent(postId)));
+    }
+
+    private void appendCsvRow(StringBuilder csv, long postId, String text) {
+        csv.append(postId).append(",\"").append(text.replace("\"", "\"\"")).append("\"\n");
+    }
+
+    private int copyIn(StringBuilder csv) {
+        var copied = jdbcTemplate.execute((ConnectionCallback<Long>) con -> {
+            try {
+                return con.unwrap(PGConnection.class).getCopyAPI()
+                        .copyIn("copy comments (post_id, text) from stdin with (format csv);", new StringReader(csv.toString()));
+            } catch (IOException e) {
+                throw new SQLException(e.getMessage(), e);
+            }
+        });
+        return copied == null ? 0 : copied.intValue();
     }
 
     private Comment mapRow(ResultSet rs) throws SQLException {
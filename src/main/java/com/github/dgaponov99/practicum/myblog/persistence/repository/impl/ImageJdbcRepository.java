@@ -0,0 +1,133 @@
+package com.github.dgaponov99.practicum.myblog.persistence.repository.impl;
+
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Image;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.ImageRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+@Repository
+@RequiredArgsConstructor
+public class ImageJdbcRepository implements ImageRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public Optional<Image> findByUuid(UUID uuid) {
+        return jdbcTemplate.query("select image_uuid, content_type, size, sha256 from images where image_uuid = ?;",
+                (rs, rowNum) -> mapRow(rs), uuid.toString()).stream().findFirst();
+    }
+
+    @Override
+    public void create(Image image) {
+        // Вместе с картинкой берём ссылку на файл с тем же содержимым; строка файла остаётся заблокированной до конца транзакции
+        jdbcTemplate.update("""
+                        with blob as (
+                            insert into image_blobs (sha256, ref_count) values (?, 1)
+                            on conflict (sha256) do update set ref_count = image_blobs.ref_count + 1
+                            returning sha256
+                        )
+                        insert into images (image_uuid, content_type, size, sha256)
+                        select ?, ?, ?, sha256 from blob;
+                        """,
+                image.getSha256(), image.getUuid().toString(), image.getContentType(), image.getSize());
+    }
+
+    @Override
+    public Optional<Image> deleteByUuid(UUID uuid) {
+        return jdbcTemplate.query("delete from images where image_uuid = ? returning image_uuid, content_type, size, sha256;",
+                (rs, rowNum) -> mapRow(rs), uuid.toString()).stream().findFirst();
+    }
+
+    @Override
+    public boolean releaseBlob(String sha256) {
+        // Строку с нулём ссылок удаляет deleteUnusedBlob после коммита, вместе с файлом
+        return jdbcTemplate.queryForList("update image_blobs set ref_count = ref_count - 1 where sha256 = ? and ref_count > 0 returning ref_count;",
+                Integer.class, sha256).stream().findFirst().filter(refCount -> refCount == 0).isPresent();
+    }
+
+    @Override
+    @Transactional
+    public boolean deleteUnusedBlob(String sha256) {
+        // Вставка пустой строки дожидается незакоммиченной вставки той же строки загрузкой, а удаление блокирует
+        // строку до конца транзакции: новая ссылка на файл не появится, пока вызывающий код его удаляет
+        jdbcTemplate.update("insert into image_blobs (sha256, ref_count) values (?, 0) on conflict (sha256) do nothing;", sha256);
+        return jdbcTemplate.update("delete from image_blobs where sha256 = ? and ref_count = 0;", sha256) > 0;
+    }
+
+    @Override
+    public List<UUID> findUnreferencedUuids(Instant createdBefore, UUID afterUuid, int limit) {
+        return jdbcTemplate.queryForList("""
+                                select i.image_uuid
+                                from images i
+                                where i.created_at < ?
+                                  and i.image_uuid > ?
+                                  and not exists (select 1 from posts p where p.image_uuid = i.image_uuid and not p.deleted)
+                                order by i.image_uuid
+                                limit ?;
+                                """,
+                        String.class, Timestamp.from(createdBefore), afterUuid == null ? "" : afterUuid.toString(), limit)
+                .stream().map(UUID::fromString).toList();
+    }
+
+    @Override
+    public Optional<Image> deleteUnreferencedByUuid(UUID uuid) {
+        // Ссылку проверяем повторно: между выборкой и удалением картинку мог вернуть откат загрузки
+        return jdbcTemplate.query("""
+                        delete from images i
+                        where i.image_uuid = ?
+                          and not exists (select 1 from posts p where p.image_uuid = i.image_uuid and not p.deleted)
+                        returning i.image_uuid, i.content_type, i.size, i.sha256;
+                        """,
+                (rs, rowNum) -> mapRow(rs), uuid.toString()).stream().findFirst();
+    }
+
+    @Override
+    public Set<String> findExistingBlobs(Collection<String> sha256s) {
+        if (sha256s.isEmpty()) {
+            return Set.of();
+        }
+        return new HashSet<>(jdbcTemplate.queryForList("select sha256 from image_blobs where sha256 = any(?) and ref_count > 0;",
+                String.class, (Object) sha256s.toArray(String[]::new)));
+    }
+
+    @Override
+    public Set<UUID> findReferencedUuids(Collection<UUID> uuids) {
+        if (uuids.isEmpty()) {
+            return Set.of();
+        }
+        var referenced = new HashSet<UUID>();
+        jdbcTemplate.query("""
+                        select image_uuid from posts where image_uuid = any(?) and not deleted
+                        union
+                        select image_uuid from images where image_uuid = any(?);
+                        """,
+                rs -> {
+                    referenced.add(UUID.fromString(rs.getString("image_uuid")));
+                },
+                uuids.stream().map(UUID::toString).toArray(String[]::new),
+                uuids.stream().map(UUID::toString).toArray(String[]::new));
+        return referenced;
+    }
+
+    private Image mapRow(ResultSet rs) throws SQLException {
+        return new Image(
+                UUID.fromString(rs.getString("image_uuid")),
+                rs.getString("content_type"),
+                rs.getLong("size"),
+                rs.getString("sha256")
+        );
+    }
+}
@@ -1,18 +1,25 @@
 package com.github.dgaponov99.practicum.myblog.persistence.repository.impl;
 
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Comment;
 import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.PostSlice;
 import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -20,86 +27,322 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class PostJdbcRepository implements PostRepository {
 
+    private static final String SELECT_POSTS_SQL = """
+            select p.post_id,
+                   p.title,
+                   p.text,
+                   p.likes_count,
+                   p.comments_count,
+                   p.image_uuid,
+                   p.deleted
+            from posts p
+            """;
+    private static final String SELECT_POSTS_WITH_TOTAL_SQL = """
+            select p.post_id,
+                   p.title,
+                   p.text,
+                   p.likes_count,
+                   p.comments_count,
+                   p.image_uuid,
+                   p.deleted,
+                   count(*) over () total_count
+            from posts p
+            """;
+    private static final String SELECT_RANKED_POSTS_WITH_TOTAL_SQL = """
+            select p.post_id,
+                   p.title,
+                   p.text,
+                   p.likes_count,
+                   p.comments_count,
+                   p.image_uuid,
+                   p.deleted,
+                   count(*) over () total_count,
+                   ts_rank(p.search_vector, websearch_to_tsquery('russian', ?)) rank
+            from posts p
+            """;
+
     private final JdbcTemplate jdbcTemplate;
 
+    @Value("${posts.transfer.export.fetch-size:1000}")
+    private int exportFetchSize;
+
     @Override
     public List<Post> findAll(String title, Set<String> tags, int size, int offset) {
-        var headSql = """
-                select p.post_id,
-                       p.title,
-                       p.text,
-                       p.likes_count,
-                       p.image_uuid,
-                       p.deleted
-                from posts p
-                """;
         var params = new ArrayList<>();
-        var sql = searchSql(headSql, title, tags, params);
+        var sql = searchSql(SELECT_POSTS_SQL, title, null, tags, null, params);
         params.add(offset);
         params.add(size);
         sql += " order by post_id desc offset ? rows fetch next ? rows only;";
         log.debug(sql);
-        return jdbcTemplate.query(sql, (rs, rowNum) -> mapPost(rs), params.toArray());
+        var posts = jdbcTemplate.query(sql, (rs, rowNum) -> mapPost(rs), params.toArray());
+        fillTags(posts);
+        return posts;
+    }
+
+    @Override
+    public PostSlice findAllWithTotal(String title, Set<String> tags, int size, int offset) {
+        var params = new ArrayList<>();
+        var sql = searchSql(SELECT_POSTS_WITH_TOTAL_SQL, title, null, tags, null, params);
+        params.add(offset);
+        params.add(size);
+        sql += " order by post_id desc offset ? rows fetch next ? rows only;";
+        log.debug(sql);
+        var totalCount = new AtomicInteger();
+        var posts = jdbcTemplate.query(sql, (rs, rowNum) -> {
+            totalCount.set(rs.getInt("total_count"));
+            return mapPost(rs);
+        }, params.toArray());
+        fillTags(posts);
+        if (posts.isEmpty() && offset > 0) {
+            return new PostSlice(posts, count(title, tags));
+        }
+        return new PostSlice(posts, totalCount.get());
+    }
+
+    @Override
+    public PostSlice findAllByFullText(String query, Set<String> tags, int size, int offset) {
+        var params = new ArrayList<>();
+        params.add(query);
+        var sql = searchSql(SELECT_RANKED_POSTS_WITH_TOTAL_SQL, null, query, tags, null, params);
+        params.add(offset);
+        params.add(size);
+        sql += " order by rank desc, post_id desc offset ? rows fetch next ? rows only;";
+        log.debug(sql);
+        var totalCount = new AtomicInteger();
+        var posts = jdbcTemplate.query(sql, (rs, rowNum) -> {
+            totalCount.set(rs.getInt("total_count"));
+            return mapPost(rs);
+        }, params.toArray());
+        fillTags(posts);
+        if (posts.isEmpty() && offset > 0) {
+            return new PostSlice(posts, count(null, query, tags));
+        }
+        return new PostSlice(posts, totalCount.get());
+    }
+
+    @Override
+    public List<Post> findAllAfter(String title, Set<String> tags, int size, Long afterPostId) {
+        var params = new ArrayList<>();
+        var sql = searchSql(SELECT_POSTS_SQL, title, null, tags, afterPostId, params);
+        params.add(size);
+        sql += " order by post_id desc fetch next ? rows only;";
+        log.debug(sql);
+        var posts = jdbcTemplate.query(sql, (rs, rowNum) -> mapPost(rs), params.toArray());
+        fillTags(posts);
+        return posts;
     }
 
     @Override
     public int count(String title, Set<String> tags) {
+        return count(title, null, tags);
+    }
+
+    private int count(String title, String fullTextQuery, Set<String> tags) {
         var headSql = """
                 select count(*)
                 from (select 1
                     from posts p
                 """;
         var params = new ArrayList<>();
-        var sql = searchSql(headSql, title, tags, params) + ") as posts;";
+        var sql = searchSql(headSql, title, fullTextQuery, tags, null, params) + ") as posts;";
         log.debug(sql);
         return jdbcTemplate.queryForObject(sql, Integer.class, params.toArray());
     }
 
+    @Override
+    public void streamAllWithComments(Consumer<Post> postConsumer, Consumer<Comment> commentConsumer) {
+        // Одним курсором: строки поста и его комментариев идут подряд, порядок даёт merge join по индексам.
+        // Теги собираются один раз на пост до соединения с комментариями, а не в каждой строке комментария
+        var currentPostId = new long[]{0};
+        jdbcTemplate.query(con -> {
+                    var ps = con.prepareStatement("""
+                                    select p.post_id,
+                                           p.title,
+                                           p.text,
+                                           p.likes_count,
+                                           p.comments_count,
+                                           coalesce(t.tags, array []::varchar[]) tags,
+                                           c.comment_id,
+                                           c.text comment_text
+                                    from posts p
+                                             left join (select pt.post_id, array_agg(pt.tag) tags
+                                                        from post_tag pt
+                                                        group by pt.post_id) t on t.post_id = p.post_id
+                                             left join comments c on c.post_id = p.post_id and not c.deleted
+                                    where not p.deleted
+                                    order by p.post_id, c.comment_id;
+                                    """,
+                            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    ps.setFetchSize(exportFetchSize);
+                    return ps;
+                },
+                rs -> {
+                    var postId = rs.getLong("post_id");
+                    if (postId != currentPostId[0]) {
+                        currentPostId[0] = postId;
+                        var post = new Post();
+                        post.setId(postId);
+                        post.setTitle(rs.getString("title"));
+                        post.setText(rs.getString("text"));
+                        post.setLikesCount(rs.getInt("likes_count"));
+                        post.setCommentsCount(rs.getInt("comments_count"));
+                        post.setTags(new HashSet<>(Arrays.asList((String[]) rs.getArray("tags").getArray())));
+                        postConsumer.accept(post);
+                    }
+                    var commentId = rs.getLong("comment_id");
+                    if (!rs.wasNull()) {
+                        commentConsumer.accept(new Comment(commentId, postId, rs.getString("comment_text"), false));
+                    }
+                });
+    }
+
     @Override
     public Optional<Post> findById(Long id) {
-        return jdbcTemplate.query(
-                "select post_id, title, text, likes_count, image_uuid, deleted from posts where post_id = ?;",
-                (rs, rowNum) -> mapPost(rs), id).stream().findFirst();
+        var posts = jdbcTemplate.query(SELECT_POSTS_SQL + " where p.post_id = ?;",
+                (rs, rowNum) -> mapPost(rs), id);
+        fillTags(posts);
+        return posts.stream().findFirst();
+    }
+
+    @Override
+    public Optional<Long> findVersionById(Long id) {
+        return jdbcTemplate.queryForList("select version from posts where post_id = ? and not deleted;", Long.class, id)
+                .stream().findFirst();
     }
 
     @Override
+    @Transactional
     public Post create(String title, String text, Set<String> tags) {
         var keyHolder = new GeneratedKeyHolder();
         jdbcTemplate.update(connection -> {
             var statement = connection.prepareStatement(
-                    "insert into posts (title, text) values (?, ?);", Statement.RETURN_GENERATED_KEYS);
+                    "insert into posts (title, text) values (?, ?);", new String[]{"post_id"});
             statement.setString(1, title);
             statement.setString(2, text);
             return statement;
         }, keyHolder);
-        var postId = (long) keyHolder.getKeys().get("post_id");
-        new HashSet<>(tags).forEach(tag -> jdbcTemplate.update(
-                "insert into post_tag (post_id, tag) values (?, ?);", postId, tag));
+        var postId = keyHolder.getKey().longValue();
+        insertTags(postId, tags);
         return findById(postId).get();
     }
 
     @Override
+    @Transactional
+    public List<Long> createAll(List<Post> posts) {
+        if (posts.isEmpty()) {
+            return List.of();
+        }
+        var keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(con -> con.prepareStatement(
+                        "insert into posts (title, text, likes_count, comments_count) values (?, ?, ?, ?);", new String[]{"post_id"}),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        var post = posts.get(i);
+                        ps.setString(1, post.getTitle());
+                        ps.setString(2, post.getText());
+                        ps.setInt(3, post.getLikesCount());
+                        ps.setInt(4, post.getCommentsCount());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return posts.size();
+                    }
+                },
+                keyHolder);
+        var postIds = keyHolder.getKeyList().stream().map(keys -> ((Number) keys.get("post_id")).longValue()).toList();
+        var tagRows = new ArrayList<Object[]>();
+        for (int i = 0; i < posts.size(); i++) {
+            var postId = postIds.get(i);
+            posts.get(i).getTags().forEach(tag -> tagRows.add(new Object[]{postId, tag}));
+        }
+        if (!tagRows.isEmpty()) {
+            jdbcTemplate.batchUpdate("insert into post_tag (post_id, tag) values (?, ?);", tagRows);
+        }
+        return postIds;
+    }
+
+    @Override
+    @Transactional
     public void update(Long id, String title, String text, Set<String> tags) {
-        if (Boolean.TRUE.equals(jdbcTemplate.queryForObject("select exists(select 1 from posts where post_id = ?);", Boolean.class, id))) {
-            jdbcTemplate.update("update posts set title = ?, text = ? where post_id = ?;", title, text, id);
-            jdbcTemplate.update("delete from post_tag where post_id = ?;", id);
-            tags.forEach(tag -> jdbcTemplate.update("insert into post_tag (post_id, tag) values (?, ?);", id, tag));
+        if (jdbcTemplate.update("update posts set title = ?, text = ?, version = nextval('content_version_seq') where post_id = ?;", title, text, id) == 0) {
+            return;
+        }
+        var currentTags = new HashSet<>(jdbcTemplate.queryForList(
+                "select tag from post_tag where post_id = ?;", String.class, id));
+        var removedTags = currentTags.stream().filter(tag -> !tags.contains(tag)).toArray(String[]::new);
+        if (removedTags.length > 0) {
+            jdbcTemplate.update("delete from post_tag where post_id = ? and tag = any(?);", id, removedTags);
         }
+        insertTags(id, tags.stream().filter(tag -> !currentTags.contains(tag)).toList());
     }
 
     @Override
     public void updateImageUuid(Long id, UUID imageUuid) {
-        jdbcTemplate.update("update posts set image_uuid = ? where post_id = ?;", imageUuid.toString(), id);
+        jdbcTemplate.update("update posts set image_uuid = ?, version = nextval('content_version_seq') where post_id = ?;", imageUuid.toString(), id);
+    }
+
+    @Override
+    public boolean replaceImageUuid(Long id, UUID expectedImageUuid, UUID imageUuid) {
+        return jdbcTemplate.update("update posts set image_uuid = ?, version = nextval('content_version_seq') where post_id = ? and image_uuid = ?;",
+                imageUuid != null ? imageUuid.toString() : null, id, expectedImageUuid.toString()) > 0;
     }
 
     @Override
-    public void incrementLikes(Long id) {
-        jdbcTemplate.update("update posts set likes_count = likes_count + 1 where post_id = ?;", id);
+    public Optional<Integer> incrementLikes(Long id) {
+        return jdbcTemplate.queryForList(
+                "update posts set likes_count = likes_count + 1, version = nextval('content_version_seq') where post_id = ? and not deleted returning likes_count;",
+                Integer.class, id).stream().findFirst();
+    }
+
+    @Override
+    public void addLikes(Map<Long, Integer> likeDeltas) {
+        if (likeDeltas.isEmpty()) {
+            return;
+        }
+        var sortedDeltas = new TreeMap<>(likeDeltas);
+        jdbcTemplate.update("""
+                        update posts p
+                        set likes_count = p.likes_count + d.delta,
+                            version     = nextval('content_version_seq')
+                        from unnest(?::bigint[], ?::integer[]) d(post_id, delta)
+                        where p.post_id = d.post_id;
+                        """,
+                sortedDeltas.keySet().toArray(Long[]::new), sortedDeltas.values().toArray(Integer[]::new));
     }
 
     @Override
     public void deleteById(Long id) {
-        jdbcTemplate.update("update posts set deleted = true where post_id = ?;", id);
+        jdbcTemplate.update("update posts set deleted = true, version = nextval('content_version_seq') where post_id = ?;", id);
+    }
+
+    @Override
+    public int reconcileCommentsCount() {
+        // Счётчик меняется, только если с момента подсчёта его никто не трогал: пост, на который
+        // параллельно создали или удалили комментарий, пропускается до следующей сверки
+        return jdbcTemplate.update("""
+                update posts p
+                set comments_count = actual.comments_count,
+                    version        = nextval('content_version_seq')
+                from (select ap.post_id,
+                             ap.comments_count                                stored_count,
+                             count(c.comment_id) filter (where not c.deleted) comments_count
+                      from posts ap
+                               left join comments c on c.post_id = ap.post_id
+                      group by ap.post_id, ap.comments_count) actual
+                where p.post_id = actual.post_id
+                  and p.comments_count = actual.stored_count
+                  and p.comments_count <> actual.comments_count;
+                """);
+    }
+
+    private void insertTags(long postId, Collection<String> tags) {
+        if (tags.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate("insert into post_tag (post_id, tag) values (?, ?);",
+                tags.stream().distinct().map(tag -> new Object[]{postId, tag}).toList());
     }
 
     private Post mapPost(ResultSet rs) throws SQLException {
@@ -108,24 +351,30 @@ public class PostJdbcRepository implements PostRepository {
         rowPost.setTitle(rs.getString("title"));
         rowPost.setText(rs.getString("text"));
         rowPost.setLikesCount(rs.getInt("likes_count"));
+        rowPost.setCommentsCount(rs.getInt("comments_count"));
         var imageUuid = rs.getString("image_uuid");
         if (imageUuid != null) {
             rowPost.setImageUuid(UUID.fromString(imageUuid));
         }
-        rowPost.setTags(new HashSet<>(jdbcTemplate.query("select tag from post_tag where post_id = ?;",
-                (tagRs, rowNum) -> tagRs.getString("tag"),
-                rowPost.getId())));
+        rowPost.setTags(new HashSet<>());
         rowPost.setDeleted(rs.getBoolean("deleted"));
         return rowPost;
     }
 
-    private String searchSql(String headSql, String title, Set<String> tags, List<Object> params) {
-        var sql = new StringBuilder(headSql);
-
-        var tagCount = tags == null ? 0 : tags.size();
-        if (tagCount > 0) {
-            sql.append(" left join post_tag pt on pt.post_id = p.post_id ");
+    private void fillTags(List<Post> posts) {
+        if (posts.isEmpty()) {
+            return;
         }
+        var postsById = posts.stream().collect(Collectors.toMap(Post::getId, post -> post));
+        jdbcTemplate.query("select post_id, tag from post_tag where post_id = any(?);",
+                rs -> {
+                    postsById.get(rs.getLong("post_id")).getTags().add(rs.getString("tag"));
+                },
+                (Object) postsById.keySet().toArray(Long[]::new));
+    }
+
+    private String searchSql(String headSql, String title, String fullTextQuery, Set<String> tags, Long afterPostId, List<Object> params) {
+        var sql = new StringBuilder(headSql);
 
         sql.append(" where not p.deleted ");
 
@@ -134,14 +383,26 @@ public class PostJdbcRepository implements PostRepository {
             sql.append(" and lower(p.title) like lower(?) ");
         }
 
-        if (tagCount > 0) {
+        if (StringUtils.hasText(fullTextQuery)) {
+            params.add(fullTextQuery);
+            sql.append(" and p.search_vector @@ websearch_to_tsquery('russian', ?) ");
+        }
+
+        if (afterPostId != null) {
+            params.add(afterPostId);
+            sql.append(" and p.post_id < ? ");
+        }
+
+        if (tags != null && !tags.isEmpty()) {
             var tagsQuery = tags.stream().peek(params::add).map(tag -> "?").collect(Collectors.joining(", "));
-            sql.append(" and (pt.tag in (").append(tagsQuery).append(")) ");
-            params.add(tagCount);
+            params.add(tags.size());
             sql.append("""
-                     group by p.post_id, p.title, p.text, p.likes_count, p.image_uuid, p.deleted
-                     having (count(distinct pt.tag) = ?)
-                    """);
+                     and p.post_id in (select pt.post_id
+                                       from post_tag pt
+                                       where pt.tag in (%s)
+                                       group by pt.post_id
+                                       having count(*) = ?)
+                    """.formatted(tagsQuery));
         }
         return sql.toString();
     }
@@ -1,6 +1,9 @@
 package com.github.dgaponov99.practicum.myblog.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.github.dgaponov99.practicum.myblog.dto.CommentDTO;
+import com.github.dgaponov99.practicum.myblog.dto.CommentImportChunkDTO;
 import com.github.dgaponov99.practicum.myblog.dto.data.CommentDataDTO;
 import com.github.dgaponov99.practicum.myblog.exception.CommentNotFoundException;
 import com.github.dgaponov99.practicum.myblog.exception.PostNotFoundException;
@@ -8,12 +11,25 @@ import com.github.dgaponov99.practicum.myblog.mapper.CommentMapper;
 import com.github.dgaponov99.practicum.myblog.persistence.entity.Comment;
 import com.github.dgaponov99.practicum.myblog.persistence.repository.CommentRepository;
 import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import jakarta.validation.Validator;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class CommentService {
@@ -21,11 +37,15 @@ public class CommentService {
     private final PostRepository postRepository;
     private final CommentRepository commentRepository;
     private final CommentMapper commentMapper;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
 
+    @Transactional(readOnly = true)
     public Optional<CommentDTO> getComment(long id) {
         return getNotDeleted(id).map(commentMapper::toDto);
     }
 
+    @Transactional(readOnly = true)
     public List<CommentDTO> getByPostId(long postId) throws PostNotFoundException {
         if (!hasNotDeletedPost(postId)) {
             throw new PostNotFoundException(postId);
@@ -33,24 +53,115 @@ public class CommentService {
         return commentRepository.findByPostId(postId).stream().filter(comment -> !comment.isDeleted()).map(commentMapper::toDto).toList();
     }
 
-    public CommentDTO createComment(long postId, CommentDataDTO commentData) throws PostNotFoundException {
+    @Transactional(readOnly = true)
+    public List<CommentDTO> getByPostIdAfter(long postId, Long afterCommentId, int limit) throws PostNotFoundException {
         if (!hasNotDeletedPost(postId)) {
             throw new PostNotFoundException(postId);
         }
-        var comment = commentRepository.create(postId, commentData.getText());
-        return commentMapper.toDto(comment);
+        return commentRepository.findByPostIdAfter(postId, afterCommentId, limit).stream().map(commentMapper::toDto).toList();
+    }
+
+    // Комментарии передаются потребителю по одному, пока открыт курсор, поэтому весь список в памяти не собирается
+    @Transactional(readOnly = true)
+    public void streamByPostId(long postId, Consumer<CommentDTO> consumer) {
+        commentRepository.streamByPostId(postId, comment -> consumer.accept(commentMapper.toDto(comment)));
     }
 
-    public CommentDTO editComment(long id, CommentDataDTO commentData) throws CommentNotFoundException {
-        getNotDeleted(id).orElseThrow(() -> new CommentNotFoundException(id));
-        commentRepository.update(id, commentData.getText());
-        return getComment(id).orElseThrow();
+    // Любая запись комментария меняет версию поста под блокировкой его строки, а max(version) по комментариям
+    // мог бы не вырасти, если вставка с меньшим значением последовательности закоммитится позже
+    @Transactional(readOnly = true)
+    public long getCommentsVersion(long postId) throws PostNotFoundException {
+        return postRepository.findVersionById(postId).orElseThrow(() -> new PostNotFoundException(postId));
+    }
+
+    @Transactional
+    public CommentDTO createComment(long postId, CommentDataDTO commentData) throws PostNotFoundException {
+        return commentRepository.create(postId, commentData.getText())
+                .map(commentMapper::toDto)
+                .orElseThrow(() -> new PostNotFoundException(postId));
     }
 
+    @Transactional
+    public CommentDTO editComment(long postId, long id, CommentDataDTO commentData) throws CommentNotFoundException {
+        return commentRepository.update(postId, id, commentData.getText())
+                .map(commentMapper::toDto)
+                .orElseThrow(() -> new CommentNotFoundException(id));
+    }
+
+    // Каждая пачка пишется в своей транзакции: ошибка в пачке не откатывает уже загруженные
+    public List<CommentImportChunkDTO> importComments(long postId, InputStream ndjson, int chunkSize) throws PostNotFoundException {
+        if (!hasNotDeletedPost(postId)) {
+            throw new PostNotFoundException(postId);
+        }
+        var commentReader = objectMapper.readerFor(CommentDataDTO.class);
+        var results = new ArrayList<CommentImportChunkDTO>();
+        var texts = new ArrayList<String>(chunkSize);
+        var chunk = new CommentImportChunkDTO(1, 1, 0, 0, 0, null);
+        try (var lines = new BufferedReader(new InputStreamReader(ndjson, StandardCharsets.UTF_8))) {
+            String line;
+            long lineNumber = 0;
+            while ((line = lines.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                var text = parseCommentText(commentReader, line);
+                if (text == null) {
+                    chunk.setRejected(chunk.getRejected() + 1);
+                } else {
+                    texts.add(text);
+                }
+                chunk.setLastLine(lineNumber);
+                if (texts.size() + chunk.getRejected() >= chunkSize) {
+                    if (!writeChunk(postId, texts, chunk, results)) {
+                        return results;
+                    }
+                    chunk = new CommentImportChunkDTO(chunk.getChunk() + 1, lineNumber + 1, 0, 0, 0, null);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!texts.isEmpty() || chunk.getRejected() > 0) {
+            writeChunk(postId, texts, chunk, results);
+        }
+        return results;
+    }
+
+    @Transactional
     public void deleteComment(long id) {
         commentRepository.deleteById(id);
     }
 
+    private String parseCommentText(ObjectReader commentReader, String line) {
+        try {
+            CommentDataDTO commentData = commentReader.readValue(line);
+            return commentData != null && validator.validate(commentData).isEmpty() ? commentData.getText() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private boolean writeChunk(long postId, List<String> texts, CommentImportChunkDTO chunk, List<CommentImportChunkDTO> results) {
+        var written = true;
+        try {
+            if (!texts.isEmpty()) {
+                var imported = commentRepository.copyAll(postId, texts);
+                if (imported == 0) {
+                    chunk.setError("Post " + postId + " not found");
+                    written = false;
+                }
+                chunk.setImported(imported);
+            }
+        } catch (DataAccessException e) {
+            log.warn("Failed to import comments chunk {} of post {}", chunk.getChunk(), postId, e);
+            chunk.setError(e.getMostSpecificCause().getMessage());
+        }
+        results.add(chunk);
+        texts.clear();
+        return written;
+    }
+
     private Optional<Comment> getNotDeleted(long id) {
         return commentRepository.findById(id).filter(comment -> !comment.isDeleted());
     }
@@ -0,0 +1,35 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CommentsCountReconciliationJob {
+
+    private final PostRepository postRepository;
+
+    @Value("${posts.comments-count.reconcile-on-startup:false}")
+    private boolean reconcileOnStartup;
+
+    @EventListener
+    public void reconcileOnStartup(ContextRefreshedEvent event) {
+        if (reconcileOnStartup) {
+            run();
+        }
+    }
+
+    public int run() {
+        var startedAt = System.currentTimeMillis();
+        var reconciledCount = postRepository.reconcileCommentsCount();
+        log.info("Comments count reconciled for {} posts in {} ms", reconciledCount, System.currentTimeMillis() - startedAt);
+        return reconciledCount;
+    }
+
+}
@@ -0,0 +1,286 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.github.dgaponov99.practicum.myblog.persistence.repository.ImageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+@Slf4j
+@Component
+public class ImageGarbageCollector {
+
+    private static final Pattern BLOB_NAME = Pattern.compile("[0-9a-f]{64}");
+    private static final Pattern VARIANT_NAME = Pattern.compile("([0-9a-f]{64})-[a-z]+\\.(jpg|png)");
+    private static final Pattern TEMP_NAME = Pattern.compile("(upload|variant)-.*\\.tmp");
+    private static final long ONE_SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final PostImageService postImageService;
+    private final ImageRepository imageRepository;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final String postImageDirectoryPath;
+    private final Duration gracePeriod;
+    private final int batchSize;
+    private final int maxFilesPerSecond;
+    private final Counter reclaimedBytes;
+    private final Timer scanTimer;
+
+    public ImageGarbageCollector(PostImageService postImageService,
+                                 ImageRepository imageRepository,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${post.image.gc.enabled:true}") boolean enabled,
+                                 @Value("${post.image.directory:images}") String postImageDirectoryPath,
+                                 @Value("${post.image.gc.grace-period-seconds:86400}") long gracePeriodSeconds,
+                                 @Value("${post.image.gc.batch-size:500}") int batchSize,
+                                 @Value("${post.image.gc.max-files-per-second:1000}") int maxFilesPerSecond) {
+        this.postImageService = postImageService;
+        this.imageRepository = imageRepository;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.postImageDirectoryPath = postImageDirectoryPath;
+        this.gracePeriod = Duration.ofSeconds(gracePeriodSeconds);
+        this.batchSize = batchSize;
+        this.maxFilesPerSecond = maxFilesPerSecond;
+        this.reclaimedBytes = Counter.builder("image.gc.reclaimed").baseUnit("bytes").register(meterRegistry);
+        this.scanTimer = meterRegistry.timer("image.gc.scan");
+    }
+
+    @Scheduled(initialDelayString = "${post.image.gc.initial-delay-ms:60000}",
+            fixedDelayString = "${post.image.gc.interval-ms:3600000}")
+    public void run() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            collect();
+        } catch (RuntimeException e) {
+            log.warn("Image garbage collection failed", e);
+        }
+    }
+
+    public synchronized Report collect() {
+        var started = System.nanoTime();
+        var sweep = new Sweep(Instant.now().minus(gracePeriod));
+        sweepRecords(sweep);
+        sweepFiles(sweep);
+        var duration = Duration.ofNanos(System.nanoTime() - started);
+        scanTimer.record(duration);
+        var report = new Report(sweep.scannedFiles, sweep.deletedRecords, sweep.deletedFiles, sweep.reclaimedBytes, duration);
+        log.info("Image garbage collection finished: {}", report);
+        return report;
+    }
+
+    // Записи о картинках, на которые не ссылается ни один пост: брошенные загрузки и картинки удалённых постов
+    private void sweepRecords(Sweep sweep) {
+        UUID afterUuid = null;
+        List<UUID> imageUuids;
+        do {
+            imageUuids = imageRepository.findUnreferencedUuids(sweep.createdBefore, afterUuid, batchSize);
+            for (var imageUuid : imageUuids) {
+                postImageService.deleteUnreferencedImage(imageUuid).ifPresent(bytes -> {
+                    sweep.deletedRecords++;
+                    deleted("record");
+                    reclaimed(sweep, bytes);
+                });
+                afterUuid = imageUuid;
+            }
+        } while (imageUuids.size() == batchSize);
+    }
+
+    private void sweepFiles(Sweep sweep) {
+        var root = Path.of(postImageDirectoryPath).normalize();
+        if (Files.notExists(root)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (!throttle(sweep)) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    sweep.scannedFiles++;
+                    if (attrs.isRegularFile() && attrs.lastModifiedTime().toInstant().isBefore(sweep.createdBefore)) {
+                        visitOldFile(sweep, root, file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // Файл мог быть удалён во время обхода, например уменьшенная копия вместе с исходным файлом
+                    if (!(e instanceof NoSuchFileException)) {
+                        log.warn("Failed to visit {}", file, e);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        } finally {
+            flushBlobs(sweep);
+            flushLegacy(sweep);
+        }
+    }
+
+    private void visitOldFile(Sweep sweep, Path root, Path file) {
+        var name = file.getFileName().toString();
+        if (TEMP_NAME.matcher(name).matches()) {
+            deleteFile(sweep, file, "temp");
+        } else if (BLOB_NAME.matcher(name).matches()) {
+            sweep.blobs.add(file);
+            if (sweep.blobs.size() >= batchSize) {
+                flushBlobs(sweep);
+            }
+        } else if (file.getParent().equals(root) && parseUuid(name) != null) {
+            sweep.legacy.add(file);
+            if (sweep.legacy.size() >= batchSize) {
+                flushLegacy(sweep);
+            }
+        } else {
+            var variant = VARIANT_NAME.matcher(name);
+            if (variant.matches() && Files.notExists(file.resolveSibling(variant.group(1)))) {
+                deleteFile(sweep, file, "variant");
+            }
+        }
+    }
+
+    // Файлы по хэшу сверяем с таблицей файлов пачкой, а не по одному
+    private void flushBlobs(Sweep sweep) {
+        if (sweep.blobs.isEmpty()) {
+            return;
+        }
+        var existing = imageRepository.findExistingBlobs(sweep.blobs.stream().map(path -> path.getFileName().toString()).toList());
+        for (var blob : sweep.blobs) {
+            var sha256 = blob.getFileName().toString();
+            if (existing.contains(sha256)) {
+                continue;
+            }
+            // Между выборкой и удалением загрузка того же содержимого могла взять ссылку на файл,
+            // поэтому ссылки перепроверяются под блокировкой строки файла
+            try {
+                postImageService.deleteBlobIfUnused(sha256).ifPresent(bytes -> {
+                    sweep.deletedFiles++;
+                    deleted("blob");
+                    reclaimed(sweep, bytes);
+                    log.debug("Deleted orphan blob file {}", blob);
+                });
+            } catch (RuntimeException e) {
+                log.warn("Failed to delete orphan file {}", blob, e);
+            }
+        }
+        sweep.blobs.clear();
+    }
+
+    // Картинки, сохранённые до хранилища по содержимому, лежат в корне каталога под своим uuid
+    private void flushLegacy(Sweep sweep) {
+        if (sweep.legacy.isEmpty()) {
+            return;
+        }
+        var referenced = imageRepository.findReferencedUuids(sweep.legacy.stream().map(path -> parseUuid(path.getFileName().toString())).toList());
+        for (var file : sweep.legacy) {
+            if (!referenced.contains(parseUuid(file.getFileName().toString()))) {
+                deleteFile(sweep, file, "legacy");
+            }
+        }
+        sweep.legacy.clear();
+    }
+
+    private void deleteFile(Sweep sweep, Path file, String kind) {
+        try {
+            var size = Files.size(file);
+            if (Files.deleteIfExists(file)) {
+                sweep.deletedFiles++;
+                deleted(kind);
+                reclaimed(sweep, size);
+                log.debug("Deleted orphan {} file {}", kind, file);
+            }
+        } catch (NoSuchFileException e) {
+            // Уже удалён параллельно
+        } catch (IOException e) {
+            log.warn("Failed to delete orphan file {}", file, e);
+        }
+    }
+
+    // Ограничиваем число просмотренных файлов в секунду, чтобы обход не забирал весь диск
+    private boolean throttle(Sweep sweep) {
+        if (maxFilesPerSecond <= 0) {
+            return true;
+        }
+        var now = System.nanoTime();
+        if (now - sweep.windowStart >= ONE_SECOND_NANOS) {
+            sweep.windowStart = now;
+            sweep.windowFiles = 0;
+        }
+        if (++sweep.windowFiles <= maxFilesPerSecond) {
+            return true;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(ONE_SECOND_NANOS - (now - sweep.windowStart));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        sweep.windowStart = System.nanoTime();
+        sweep.windowFiles = 1;
+        return true;
+    }
+
+    private void deleted(String kind) {
+        meterRegistry.counter("image.gc.deleted", "kind", kind).increment();
+    }
+
+    private void reclaimed(Sweep sweep, long bytes) {
+        sweep.reclaimedBytes += bytes;
+        reclaimedBytes.increment(bytes);
+    }
+
+    private UUID parseUuid(String name) {
+        try {
+            return UUID.fromString(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public record Report(long scannedFiles, long deletedRecords, long deletedFiles, long reclaimedBytes, Duration duration) {
+    }
+
+    private static class Sweep {
+
+        private final Instant createdBefore;
+        private final List<Path> blobs = new ArrayList<>();
+        private final List<Path> legacy = new ArrayList<>();
+        private long scannedFiles;
+        private long deletedRecords;
+        private long deletedFiles;
+        private long reclaimedBytes;
+        private long windowStart = System.nanoTime();
+        private int windowFiles;
+
+        private Sweep(Instant createdBefore) {
+            this.createdBefore = createdBefore;
+        }
+
+    }
+
+}
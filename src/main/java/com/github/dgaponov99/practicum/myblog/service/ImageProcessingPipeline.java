@@ -0,0 +1,230 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.dgaponov99.practicum.myblog.dto.ImageJobStatusDTO;
+import com.github.dgaponov99.practicum.myblog.exception.ImageQueueFullException;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Slf4j
+@Component
+public class ImageProcessingPipeline implements DisposableBean {
+
+    private final PostImageService postImageService;
+    private final PostRepository postRepository;
+    private final MeterRegistry meterRegistry;
+    private final int capacity;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final Semaphore slots;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Cache<Long, ImageJobStatusDTO> statuses;
+    private final Counter retries;
+
+    public ImageProcessingPipeline(PostImageService postImageService,
+                                   PostRepository postRepository,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${post.image.pipeline.threads:0}") int threads,
+                                   @Value("${post.image.pipeline.queue-capacity:100}") int capacity,
+                                   @Value("${post.image.pipeline.max-attempts:3}") int maxAttempts,
+                                   @Value("${post.image.pipeline.retry-delay-ms:500}") long retryDelayMillis,
+                                   @Value("${post.image.pipeline.status-ttl-seconds:3600}") long statusTtlSeconds) {
+        this.postImageService = postImageService;
+        this.postRepository = postRepository;
+        this.meterRegistry = meterRegistry;
+        this.capacity = capacity;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+        this.slots = new Semaphore(capacity);
+        var threadNumber = new AtomicInteger();
+        this.executor = new ScheduledThreadPoolExecutor(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(),
+                runnable -> {
+                    var thread = new Thread(runnable, "image-pipeline-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.statuses = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(statusTtlSeconds))
+                .maximumSize(capacity * 100L)
+                .build();
+        Gauge.builder("image.pipeline.queue.depth", executor, e -> e.getQueue().size()).register(meterRegistry);
+        Gauge.builder("image.pipeline.in.flight", slots, s -> capacity - s.availablePermits()).register(meterRegistry);
+        this.retries = meterRegistry.counter("image.pipeline.retries");
+    }
+
+    // Место в очереди занимаем до чтения тела запроса, чтобы при перегрузке не принимать картинку на диск
+    public void reserve() throws ImageQueueFullException {
+        if (!slots.tryAcquire()) {
+            throw new ImageQueueFullException(capacity);
+        }
+    }
+
+    public void release() {
+        slots.release();
+    }
+
+    public void submitAfterCommit(long postId, UUID imageUuid, UUID oldImageUuid) {
+        var job = new Job(postId, imageUuid, oldImageUuid);
+        var queued = new ImageJobStatusDTO(imageUuid, ImageJobStatusDTO.State.QUEUED, null);
+        statuses.put(postId, queued);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            schedule(job, 0);
+            return;
+        }
+        // Воркер должен увидеть уже закоммиченную картинку
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    schedule(job, 0);
+                } else {
+                    statuses.asMap().remove(postId, queued);
+                    release();
+                }
+            }
+        });
+    }
+
+    public Optional<ImageJobStatusDTO> getStatus(long postId) {
+        return Optional.ofNullable(statuses.getIfPresent(postId))
+                .map(status -> new ImageJobStatusDTO(status.getImageUuid(), status.getState(), status.getError()));
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private void schedule(Job job, long delayMillis) {
+        try {
+            executor.schedule(() -> run(job), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            finish(job, ImageJobStatusDTO.State.FAILED, "Image processing is shut down");
+        }
+    }
+
+    private void run(Job job) {
+        updateStatus(job, ImageJobStatusDTO.State.PROCESSING, null);
+        while (job.stage != null) {
+            var stage = job.stage;
+            var sample = Timer.start(meterRegistry);
+            try {
+                job.stage = runStage(job);
+                sample.stop(stageTimer(stage, "success"));
+                job.attempt = 0;
+            } catch (RuntimeException e) {
+                sample.stop(stageTimer(stage, "failure"));
+                job.error = null;
+                if (++job.attempt < maxAttempts) {
+                    log.warn("Image {} stage {} failed, attempt {} of {}", job.imageUuid, stage, job.attempt, maxAttempts, e);
+                    retries.increment();
+                    schedule(job, retryDelayMillis * job.attempt);
+                } else {
+                    log.error("Image {} stage {} failed after {} attempts", job.imageUuid, stage, maxAttempts, e);
+                    finish(job, ImageJobStatusDTO.State.FAILED, e.getMessage());
+                }
+                return;
+            }
+        }
+        finish(job, job.error == null ? ImageJobStatusDTO.State.DONE : ImageJobStatusDTO.State.FAILED, job.error);
+    }
+
+    private Stage runStage(Job job) {
+        return switch (job.stage) {
+            case VALIDATE -> {
+                if (postImageService.validateImage(job.imageUuid)) {
+                    yield Stage.VARIANTS;
+                }
+                yield Stage.REVERT;
+            }
+            case REVERT -> {
+                // Нераспознанную картинку откатываем: у поста остаётся прежняя, новая удаляется.
+                // При повторе после сбоя подмена могла уже пройти, поэтому смотрим, на что пост ссылается сейчас
+                postRepository.replaceImageUuid(job.postId, job.imageUuid, job.oldImageUuid);
+                var currentImageUuid = postRepository.findById(job.postId).map(Post::getImageUuid).orElse(null);
+                if (job.oldImageUuid != null && !job.oldImageUuid.equals(currentImageUuid)) {
+                    // Пост уже сменил картинку, прежняя больше никому не нужна
+                    postImageService.deleteImage(job.oldImageUuid);
+                }
+                if (!job.imageUuid.equals(currentImageUuid)) {
+                    postImageService.deleteImage(job.imageUuid);
+                }
+                job.error = "Unsupported image format";
+                yield null;
+            }
+            case VARIANTS -> {
+                postImageService.generateVariants(job.imageUuid);
+                yield Stage.CLEANUP;
+            }
+            case CLEANUP -> {
+                if (job.oldImageUuid != null) {
+                    postImageService.deleteImage(job.oldImageUuid);
+                }
+                yield null;
+            }
+        };
+    }
+
+    private void finish(Job job, ImageJobStatusDTO.State state, String error) {
+        updateStatus(job, state, error);
+        meterRegistry.counter("image.pipeline.jobs", "result", state.name().toLowerCase()).increment();
+        release();
+    }
+
+    private void updateStatus(Job job, ImageJobStatusDTO.State state, String error) {
+        // Статус более поздней загрузки в тот же пост не перетираем
+        statuses.asMap().computeIfPresent(job.postId, (postId, status) -> job.imageUuid.equals(status.getImageUuid())
+                ? new ImageJobStatusDTO(job.imageUuid, state, error)
+                : status);
+    }
+
+    private Timer stageTimer(Stage stage, String result) {
+        return Timer.builder("image.pipeline.stage")
+                .tag("stage", stage.name().toLowerCase())
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private enum Stage {
+        VALIDATE, REVERT, VARIANTS, CLEANUP
+    }
+
+    private static class Job {
+
+        private final long postId;
+        private final UUID imageUuid;
+        private final UUID oldImageUuid;
+        private Stage stage = Stage.VALIDATE;
+        private int attempt;
+        private String error;
+
+        private Job(long postId, UUID imageUuid, UUID oldImageUuid) {
+            this.postId = postId;
+            this.imageUuid = imageUuid;
+            this.oldImageUuid = oldImageUuid;
+        }
+
+    }
+
+}
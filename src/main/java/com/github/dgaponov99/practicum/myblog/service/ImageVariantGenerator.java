@@ -0,0 +1,150 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.github.dgaponov99.practicum.myblog.dto.ImageVariant;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+@Slf4j
+@Component
+public class ImageVariantGenerator {
+
+    private static final String JPEG_FORMAT = "jpg";
+    private static final String PNG_FORMAT = "png";
+
+    private final long maxPixels;
+
+    public ImageVariantGenerator(@Value("${post.image.variants.max-pixels:40000000}") long maxPixels) {
+        this.maxPixels = maxPixels;
+    }
+
+    public boolean isDecodable(Path sourcePath) {
+        try (var imageIs = ImageIO.createImageInputStream(sourcePath.toFile())) {
+            var readers = imageIs != null ? ImageIO.getImageReaders(imageIs) : null;
+            if (readers == null || !readers.hasNext()) {
+                return false;
+            }
+            var reader = readers.next();
+            try {
+                reader.setInput(imageIs, true, true);
+                return reader.getWidth(0) > 0 && reader.getHeight(0) > 0;
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public Optional<Path> findVariant(Path sourcePath, ImageVariant variant) {
+        if (variant == ImageVariant.ORIGINAL) {
+            return Optional.of(sourcePath);
+        }
+        return Optional.of(variantPath(sourcePath, variant, JPEG_FORMAT))
+                .filter(Files::exists)
+                .or(() -> Optional.of(variantPath(sourcePath, variant, PNG_FORMAT)).filter(Files::exists));
+    }
+
+    public String contentType(Path variantPath) {
+        return variantPath.getFileName().toString().endsWith("." + PNG_FORMAT)
+                ? MediaType.IMAGE_PNG_VALUE
+                : MediaType.IMAGE_JPEG_VALUE;
+    }
+
+    // Возвращает число освобождённых байт
+    public long deleteVariants(Path sourcePath) throws IOException {
+        var deletedBytes = 0L;
+        for (var variant : ImageVariant.values()) {
+            if (variant != ImageVariant.ORIGINAL) {
+                deletedBytes += deleteIfExists(variantPath(sourcePath, variant, JPEG_FORMAT));
+                deletedBytes += deleteIfExists(variantPath(sourcePath, variant, PNG_FORMAT));
+            }
+        }
+        return deletedBytes;
+    }
+
+    public void generate(Path sourcePath) throws IOException {
+        var source = read(sourcePath);
+        if (source == null) {
+            return;
+        }
+        // Прозрачность сохраняем в PNG, остальное сжимаем в JPEG
+        var format = source.getColorModel().hasAlpha() ? PNG_FORMAT : JPEG_FORMAT;
+        for (var variant : ImageVariant.values()) {
+            if (variant == ImageVariant.ORIGINAL || source.getWidth() <= variant.getMaxWidth()
+                    || findVariant(sourcePath, variant).isPresent()) {
+                continue;
+            }
+            var scaled = scale(source, variant.getMaxWidth(), format);
+            var tempPath = Files.createTempFile(sourcePath.getParent(), "variant-", ".tmp");
+            try {
+                ImageIO.write(scaled, format, tempPath.toFile());
+                Files.move(tempPath, variantPath(sourcePath, variant, format), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempPath);
+            }
+        }
+    }
+
+    private BufferedImage read(Path sourcePath) throws IOException {
+        try (var imageIs = ImageIO.createImageInputStream(sourcePath.toFile())) {
+            var readers = imageIs != null ? ImageIO.getImageReaders(imageIs) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            var reader = readers.next();
+            try {
+                reader.setInput(imageIs, true, true);
+                // Размеры читаем из заголовка, чтобы не распаковывать в память слишком большие картинки
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > maxPixels) {
+                    log.warn("Image {} is too large for variants", sourcePath);
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage source, int width, String format) {
+        var height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+        var type = PNG_FORMAT.equals(format) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        var scaled = new BufferedImage(width, height, type);
+        var graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private long deleteIfExists(Path path) throws IOException {
+        try {
+            var size = Files.size(path);
+            Files.delete(path);
+            return size;
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private Path variantPath(Path sourcePath, ImageVariant variant, String format) {
+        return sourcePath.resolveSibling(sourcePath.getFileName() + "-" + variant.getName() + "." + format);
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.github.dgaponov99.practicum.myblog.dto.MeterDTO;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.StreamSupport;
+
+@Service
+@RequiredArgsConstructor
+public class MetricsService {
+
+    private final MeterRegistry meterRegistry;
+
+    public List<MeterDTO> getMeters(String namePrefix) {
+        return meterRegistry.getMeters().stream()
+                .filter(meter -> meter.getId().getName().startsWith(namePrefix))
+                .map(this::toDto)
+                .sorted(Comparator.comparing(MeterDTO::getName))
+                .toList();
+    }
+
+    private MeterDTO toDto(Meter meter) {
+        var tags = new TreeMap<String, String>();
+        for (Tag tag : meter.getId().getTags()) {
+            tags.put(tag.getKey(), tag.getValue());
+        }
+        var measurements = new LinkedHashMap<String, Double>();
+        StreamSupport.stream(meter.measure().spliterator(), false)
+                .forEach(measurement -> measurements.put(measurement.getStatistic().getTagValueRepresentation(), measurement.getValue()));
+        return new MeterDTO(meter.getId().getName(), tags, measurements);
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.OptionalInt;
+import java.util.Set;
+
+@Component
+public class PostCountCache {
+
+    private final boolean enabled;
+    private final int minTotalCount;
+    private final Cache<Key, Integer> cache;
+
+    public PostCountCache(@Value("${posts.search.count.approximate.enabled:false}") boolean enabled,
+                          @Value("${posts.search.count.approximate.min-total:10000}") int minTotalCount,
+                          @Value("${posts.search.count.approximate.ttl-seconds:60}") long ttlSeconds,
+                          @Value("${posts.search.count.approximate.max-size:1000}") long maxSize,
+                          MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.minTotalCount = minTotalCount;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "postCount");
+    }
+
+    public OptionalInt get(String title, Set<String> tags) {
+        if (!enabled) {
+            return OptionalInt.empty();
+        }
+        var count = cache.getIfPresent(new Key(title, tags));
+        return count == null ? OptionalInt.empty() : OptionalInt.of(count);
+    }
+
+    public void put(String title, Set<String> tags, int count) {
+        if (enabled && count >= minTotalCount) {
+            cache.put(new Key(title, tags), count);
+        }
+    }
+
+    private record Key(String title, Set<String> tags) {
+
+        private Key {
+            title = title == null ? "" : title.toLowerCase();
+            tags = tags == null ? Set.of() : Set.copyOf(tags);
+        }
+
+    }
+
+}
@@ -1,62 +1,281 @@
 package com.github.dgaponov99.practicum.myblog.service;
 
+import com.github.dgaponov99.practicum.myblog.dto.ImageDTO;
+import com.github.dgaponov99.practicum.myblog.dto.ImageVariant;
 import com.github.dgaponov99.practicum.myblog.exception.ImageNotFoundException;
+import com.github.dgaponov99.practicum.myblog.exception.ImageTooLargeException;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Image;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.ImageRepository;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URLConnection;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.UUID;
 
+@Slf4j
 @Service
 public class PostImageService {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ImageRepository imageRepository;
+    private final ImageVariantGenerator imageVariantGenerator;
+    private final TransactionTemplate newTransactionTemplate;
+
     @Value("${post.image.directory:images}")
     private String postImageDirectoryPath;
 
-    public UUID saveImage(InputStream inputStream) {
+    @Value("${post.image.max-size:5242880}")
+    private long maxImageSize;
+
+    public PostImageService(ImageRepository imageRepository,
+                            ImageVariantGenerator imageVariantGenerator,
+                            PlatformTransactionManager transactionManager) {
+        this.imageRepository = imageRepository;
+        this.imageVariantGenerator = imageVariantGenerator;
+        this.newTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.newTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    // Тело запроса пишется во временный файл вне транзакции: медленная загрузка не держит соединение из пула
+    public StagedImage stageImage(InputStream inputStream) throws ImageTooLargeException {
+        Path tempPath = null;
         try {
             Path uploadDir = Paths.get(postImageDirectoryPath);
             if (!Files.exists(uploadDir)) {
                 Files.createDirectories(uploadDir);
             }
 
-            var imageUuid = generateImageUuid();
-            var imagePath = getImagePath(imageUuid);
-            try (var imageFileBos = new BufferedOutputStream(new FileOutputStream(imagePath.toFile()))) {
-                inputStream.transferTo(imageFileBos);
+            // Пишем во временный файл в том же каталоге, чтобы перенос на место был атомарным
+            tempPath = Files.createTempFile(uploadDir, "upload-", ".tmp");
+            var digest = MessageDigest.getInstance("SHA-256");
+            var size = 0L;
+            try (var imageFileOs = Files.newOutputStream(tempPath)) {
+                var buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    size += read;
+                    if (size > maxImageSize) {
+                        throw new ImageTooLargeException(maxImageSize);
+                    }
+                    digest.update(buffer, 0, read);
+                    imageFileOs.write(buffer, 0, read);
+                }
+            }
+            var image = new Image(generateImageUuid(), detectContentType(tempPath), size, HexFormat.of().formatHex(digest.digest()));
+            var stagedImage = new StagedImage(image, tempPath);
+            tempPath = null;
+            return stagedImage;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        } finally {
+            deleteTempFile(tempPath);
+        }
+    }
+
+    @Transactional
+    public Image storeImage(StagedImage stagedImage) {
+        var image = stagedImage.getImage();
+        try {
+            // Файл кладём только после того, как взята ссылка: параллельное удаление последней ссылки на него уже завершено
+            imageRepository.create(image);
+            var blobPath = getBlobPath(image.getSha256());
+            if (Files.notExists(blobPath)) {
+                Files.createDirectories(blobPath.getParent());
+                Files.move(stagedImage.tempPath, blobPath, StandardCopyOption.ATOMIC_MOVE);
+                stagedImage.tempPath = null;
+            } else {
+                // Свежая дата изменения выводит файл из ближайших обходов сборщика мусора
+                Files.setLastModifiedTime(blobPath, FileTime.from(Instant.now()));
             }
-            return imageUuid;
+            return image;
         } catch (IOException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
     }
 
+    @Transactional
     public void deleteImage(UUID imageUuid) {
+        var image = imageRepository.deleteByUuid(imageUuid);
+        try {
+            if (image.isEmpty() || image.get().getSha256() == null) {
+                var legacyImagePath = getLegacyImagePath(imageUuid);
+                afterCommit(() -> deleteLegacyImage(legacyImagePath));
+            } else {
+                releaseBlob(image.get().getSha256());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    // Возвращает число освобождаемых на диске байт или пустое значение, если картинка ещё используется
+    @Transactional
+    public OptionalLong deleteUnreferencedImage(UUID imageUuid) {
+        var image = imageRepository.deleteUnreferencedByUuid(imageUuid);
+        if (image.isEmpty()) {
+            return OptionalLong.empty();
+        }
+        try {
+            return OptionalLong.of(image.get().getSha256() == null ? 0 : releaseBlob(image.get().getSha256()));
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    // Файл удаляется в своей транзакции под блокировкой строки image_blobs: загрузка того же содержимого
+    // дождётся её коммита и положит файл заново, а откат оставит и строку, и файл
+    public OptionalLong deleteBlobIfUnused(String sha256) {
+        return newTransactionTemplate.execute(status -> {
+            if (!imageRepository.deleteUnusedBlob(sha256)) {
+                return OptionalLong.empty();
+            }
+            try {
+                var blobPath = getBlobPath(sha256);
+                var size = Files.exists(blobPath) ? Files.size(blobPath) : 0;
+                size += imageVariantGenerator.deleteVariants(blobPath);
+                Files.deleteIfExists(blobPath);
+                return OptionalLong.of(size);
+            } catch (IOException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        });
+    }
+
+    // Декодирование и масштабирование идут без транзакции: соединение из пула занято только на время поиска файла
+    public boolean validateImage(UUID imageUuid) {
+        return findBlobPath(imageUuid).filter(imageVariantGenerator::isDecodable).isPresent();
+    }
+
+    public void generateVariants(UUID imageUuid) {
+        var blobPath = findBlobPath(imageUuid);
+        if (blobPath.isEmpty()) {
+            return;
+        }
         try {
-            Files.deleteIfExists(getImagePath(imageUuid));
+            imageVariantGenerator.generate(blobPath.get());
         } catch (IOException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
     }
 
-    public InputStream getImage(UUID imageUuid) throws ImageNotFoundException {
-        if (Files.notExists(getImagePath(imageUuid))) {
+    @Transactional(readOnly = true)
+    public ImageDTO getImage(UUID imageUuid, ImageVariant variant) throws ImageNotFoundException {
+        var image = imageRepository.findByUuid(imageUuid);
+        // Картинки, загруженные до появления хранилища по содержимому, лежат под своим uuid и без метаданных
+        var imagePath = image.map(Image::getSha256)
+                .map(this::getBlobPath)
+                .orElseGet(() -> getLegacyImagePath(imageUuid));
+        if (Files.notExists(imagePath)) {
             throw new ImageNotFoundException(imageUuid);
         }
+        if (variant != ImageVariant.ORIGINAL && image.map(Image::getSha256).isPresent()) {
+            var variantPath = imageVariantGenerator.findVariant(imagePath, variant);
+            if (variantPath.isPresent()) {
+                return new ImageDTO(new FileSystemResource(variantPath.get()), imageVariantGenerator.contentType(variantPath.get()), variant);
+            }
+        }
+        // Уменьшенной копии нет (картинка и так маленькая или ещё не обработана) — отдаём исходную
+        var contentType = image.map(Image::getContentType).orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        return new ImageDTO(new FileSystemResource(imagePath), contentType, ImageVariant.ORIGINAL);
+    }
+
+    private long releaseBlob(String sha256) throws IOException {
+        if (!imageRepository.releaseBlob(sha256)) {
+            return 0;
+        }
+        // При откате ссылка на файл вернётся, поэтому удаляем его только после коммита
+        var blobPath = getBlobPath(sha256);
+        var size = Files.exists(blobPath) ? Files.size(blobPath) : 0;
+        afterCommit(() -> deleteBlobIfUnused(sha256));
+        return size;
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                // Оставшийся файл подберёт сборщик мусора
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    log.warn("Failed to delete released image file", e);
+                }
+            }
+        });
+    }
+
+    private void deleteLegacyImage(Path legacyImagePath) {
         try {
-            return Files.newInputStream(getImagePath(imageUuid));
+            Files.deleteIfExists(legacyImagePath);
         } catch (IOException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
     }
 
-    private Path getImagePath(UUID imageUuid) {
+    private String detectContentType(Path imagePath) throws IOException {
+        // Тип определяем по сигнатуре файла, заявленному клиентом типу не доверяем
+        try (var imageIs = new BufferedInputStream(Files.newInputStream(imagePath))) {
+            var contentType = URLConnection.guessContentTypeFromStream(imageIs);
+            return contentType != null ? contentType : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        }
+    }
+
+    private static void deleteTempFile(Path tempPath) {
+        if (tempPath == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(tempPath);
+        } catch (IOException e) {
+            log.warn("Failed to delete temp file {}", tempPath, e);
+        }
+    }
+
+    private Optional<Path> findBlobPath(UUID imageUuid) {
+        return imageRepository.findByUuid(imageUuid)
+                .map(Image::getSha256)
+                .map(this::getBlobPath)
+                .filter(Files::exists);
+    }
+
+    private Path getBlobPath(String sha256) {
+        return Path.of(postImageDirectoryPath)
+                .resolve(sha256.substring(0, 2))
+                .resolve(sha256.substring(2, 4))
+                .resolve(sha256)
+                .normalize();
+    }
+
+    private Path getLegacyImagePath(UUID imageUuid) {
         return Path.of(postImageDirectoryPath).resolve(imageUuid.toString()).normalize();
     }
 
@@ -64,4 +283,24 @@ public class PostImageService {
         return UUID.randomUUID();
     }
 
+    // Загруженная, но ещё не сохранённая картинка; временный файл удаляется при закрытии, если не перенесён на место
+    public static class StagedImage implements AutoCloseable {
+
+        @Getter
+        private final Image image;
+        private Path tempPath;
+
+        StagedImage(Image image, Path tempPath) {
+            this.image = image;
+            this.tempPath = tempPath;
+        }
+
+        @Override
+        public void close() {
+            deleteTempFile(tempPath);
+            tempPath = null;
+        }
+
+    }
+
 }
@@ -0,0 +1,100 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.github.dgaponov99.practicum.myblog.persistence.event.PostChangedEvent;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+@Slf4j
+@Component
+public class PostLikesAccumulator implements DisposableBean {
+
+    private final boolean enabled;
+    private final PostRepository postRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ConcurrentHashMap<Long, Counter> counters = new ConcurrentHashMap<>();
+
+    public PostLikesAccumulator(@Value("${posts.likes.write-behind.enabled:false}") boolean enabled,
+                                PostRepository postRepository,
+                                ApplicationEventPublisher eventPublisher) {
+        this.enabled = enabled;
+        this.postRepository = postRepository;
+        this.eventPublisher = eventPublisher;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long add(long postId) {
+        addDelta(postId, 1);
+        return pending(postId);
+    }
+
+    public long pending(long postId) {
+        var counter = counters.get(postId);
+        return counter == null ? 0 : counter.likes.sum();
+    }
+
+    @Scheduled(fixedDelayString = "${posts.likes.write-behind.flush-interval-ms:1000}")
+    public synchronized void flush() {
+        var likeDeltas = new TreeMap<Long, Integer>();
+        counters.forEach((postId, counter) -> {
+            var delta = counter.likes.sumThenReset();
+            if (delta > 0) {
+                likeDeltas.put(postId, (int) delta);
+            } else if (counters.remove(postId, counter)) {
+                // Лайки, попавшие в счётчик после удаления из карты, переносим в новый счётчик
+                counter.retired = true;
+                var missed = counter.likes.sumThenReset();
+                if (missed > 0) {
+                    likeDeltas.put(postId, (int) missed);
+                }
+            }
+        });
+        if (likeDeltas.isEmpty()) {
+            return;
+        }
+        try {
+            postRepository.addLikes(likeDeltas);
+            log.debug("Flushed likes for {} posts", likeDeltas.size());
+            // Закэшированные страницы ленты хранят лайки из БД, после сброса они устарели
+            likeDeltas.keySet().forEach(postId -> eventPublisher.publishEvent(new PostChangedEvent(postId)));
+        } catch (RuntimeException e) {
+            log.warn("Failed to flush likes for {} posts, will retry", likeDeltas.size(), e);
+            likeDeltas.forEach(this::addDelta);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flush();
+    }
+
+    private void addDelta(long postId, long delta) {
+        while (delta != 0) {
+            var counter = counters.computeIfAbsent(postId, id -> new Counter());
+            counter.likes.add(delta);
+            if (!counter.retired) {
+                return;
+            }
+            delta = counter.likes.sumThenReset();
+        }
+    }
+
+    private static class Counter {
+
+        private final LongAdder likes = new LongAdder();
+        private volatile boolean retired;
+
+    }
+
+}
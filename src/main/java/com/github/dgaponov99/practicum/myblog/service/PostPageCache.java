@@ -0,0 +1,155 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.dgaponov99.practicum.myblog.dto.PostDTO;
+import com.github.dgaponov99.practicum.myblog.dto.PostPageDTO;
+import com.github.dgaponov99.practicum.myblog.persistence.event.PostChangedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+@Component
+public class PostPageCache {
+
+    private final boolean enabled;
+    private final Cache<Key, PostPageDTO> cache;
+    private final ConcurrentHashMap<Long, Set<Key>> keysByPostId = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter coalesced;
+
+    public PostPageCache(@Value("${posts.page-cache.enabled:false}") boolean enabled,
+                         @Value("${posts.page-cache.ttl-seconds:30}") long ttlSeconds,
+                         @Value("${posts.page-cache.max-size:1000}") long maxSize,
+                         MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                // Индекс чистится при любом удалении страницы, в том числе при явной инвалидации,
+                // и сразу в удаляющем потоке, а не в общем пуле
+                .executor(Runnable::run)
+                .<Key, PostPageDTO>removalListener((key, postPage, cause) -> {
+                    if (key != null && postPage != null) {
+                        unindex(key, postPage);
+                    }
+                })
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "postPage");
+        this.hits = meterRegistry.counter("posts.page.cache.requests", "result", "hit");
+        this.misses = meterRegistry.counter("posts.page.cache.requests", "result", "miss");
+        this.coalesced = meterRegistry.counter("posts.page.cache.requests", "result", "coalesced");
+    }
+
+    public PostPageDTO get(String title, Set<String> tags, int pageNumber, int pageSize, Supplier<PostPageDTO> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        var key = new Key(title, tags, pageNumber, pageSize);
+        var cachedPage = cache.getIfPresent(key);
+        if (cachedPage != null) {
+            hits.increment();
+            return copy(cachedPage);
+        }
+        var loadedVersion = new AtomicLong(-1);
+        var postPage = cache.get(key, k -> {
+            loadedVersion.set(version.get());
+            var loadedPage = loader.get();
+            index(k, loadedPage);
+            return loadedPage;
+        });
+        if (loadedVersion.get() < 0) {
+            coalesced.increment();
+        } else {
+            misses.increment();
+            // Страница могла устареть, пока шла загрузка
+            if (loadedVersion.get() != version.get()) {
+                cache.invalidate(key);
+            }
+        }
+        return copy(postPage);
+    }
+
+    public void invalidatePost(long postId) {
+        runNowAndAfterCompletion(() -> {
+            version.incrementAndGet();
+            var keys = keysByPostId.remove(postId);
+            if (keys != null) {
+                cache.invalidateAll(Set.copyOf(keys));
+            }
+        });
+    }
+
+    public void invalidateAll() {
+        runNowAndAfterCompletion(() -> {
+            version.incrementAndGet();
+            cache.invalidateAll();
+            keysByPostId.clear();
+        });
+    }
+
+    @EventListener
+    public void onPostChanged(PostChangedEvent event) {
+        invalidatePost(event.postId());
+    }
+
+    private void index(Key key, PostPageDTO postPage) {
+        postPage.getPosts().forEach(post ->
+                keysByPostId.computeIfAbsent(post.getId(), id -> ConcurrentHashMap.newKeySet()).add(key));
+    }
+
+    private void unindex(Key key, PostPageDTO postPage) {
+        postPage.getPosts().forEach(post -> keysByPostId.computeIfPresent(post.getId(), (id, keys) -> {
+            // Страницу под тем же ключом могли уже загрузить заново
+            if (!cache.asMap().containsKey(key)) {
+                keys.remove(key);
+            }
+            return keys.isEmpty() ? null : keys;
+        }));
+    }
+
+    private void runNowAndAfterCompletion(Runnable invalidation) {
+        invalidation.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    invalidation.run();
+                }
+            });
+        }
+    }
+
+    private PostPageDTO copy(PostPageDTO postPage) {
+        var posts = postPage.getPosts().stream()
+                .map(post -> new PostDTO(post.getId(), post.getTitle(), post.getText(), new HashSet<>(post.getTags()),
+                        post.getLikesCount(), post.getCommentsCount(), post.getImageUrl()))
+                .toList();
+        return new PostPageDTO(posts, postPage.isHasPrev(), postPage.isHasNext(), postPage.getLastPage(), postPage.getNextCursor());
+    }
+
+    private record Key(String title, Set<String> tags, int pageNumber, int pageSize) {
+
+        private Key {
+            title = title == null ? "" : title.toLowerCase();
+            tags = tags == null ? Set.of() : Set.copyOf(tags);
+        }
+
+    }
+
+}
@@ -1,104 +1,248 @@
 package com.github.dgaponov99.practicum.myblog.service;
 
+import com.github.dgaponov99.practicum.myblog.dto.ImageDTO;
+import com.github.dgaponov99.practicum.myblog.dto.ImageJobStatusDTO;
+import com.github.dgaponov99.practicum.myblog.dto.ImageVariant;
 import com.github.dgaponov99.practicum.myblog.dto.PostDTO;
 import com.github.dgaponov99.practicum.myblog.dto.PostPageDTO;
 import com.github.dgaponov99.practicum.myblog.dto.data.PostDataDTO;
 import com.github.dgaponov99.practicum.myblog.exception.ImageNotFoundException;
+import com.github.dgaponov99.practicum.myblog.exception.ImageQueueFullException;
+import com.github.dgaponov99.practicum.myblog.exception.ImageTooLargeException;
+import com.github.dgaponov99.practicum.myblog.exception.InvalidCursorException;
 import com.github.dgaponov99.practicum.myblog.exception.PostNotFoundException;
 import com.github.dgaponov99.practicum.myblog.mapper.PostMapper;
 import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
-import com.github.dgaponov99.practicum.myblog.persistence.repository.CommentRepository;
 import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
-import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
 
 @Service
-@RequiredArgsConstructor
 public class PostService {
 
     private final PostRepository postRepository;
-    private final CommentRepository commentRepository;
     private final PostMapper postMapper;
     private final PostImageService postImageService;
+    private final PostCountCache postCountCache;
+    private final PostLikesAccumulator postLikesAccumulator;
+    private final PostPageCache postPageCache;
+    private final ImageProcessingPipeline imageProcessingPipeline;
+    private final TransactionTemplate transactionTemplate;
 
+    public PostService(PostRepository postRepository,
+                       PostMapper postMapper,
+                       PostImageService postImageService,
+                       PostCountCache postCountCache,
+                       PostLikesAccumulator postLikesAccumulator,
+                       PostPageCache postPageCache,
+                       ImageProcessingPipeline imageProcessingPipeline,
+                       PlatformTransactionManager transactionManager) {
+        this.postRepository = postRepository;
+        this.postMapper = postMapper;
+        this.postImageService = postImageService;
+        this.postCountCache = postCountCache;
+        this.postLikesAccumulator = postLikesAccumulator;
+        this.postPageCache = postPageCache;
+        this.imageProcessingPipeline = imageProcessingPipeline;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Transactional(readOnly = true)
     public PostPageDTO searchPosts(String title, Set<String> tags, int pageNumber, int pageSize) {
-        var postDTOs = postRepository.findAll(title, tags, pageSize, (pageNumber - 1) * pageSize).stream()
-                .map(this::toDto)
-                .toList();
-        var postCount = postRepository.count(title, tags);
+        var postPage = postPageCache.get(title, tags, pageNumber, pageSize, () -> loadPosts(title, tags, pageNumber, pageSize));
+        // В кэше страниц лайки из БД, ещё не сброшенные накладываем при каждом чтении
+        if (postLikesAccumulator.isEnabled()) {
+            postPage.getPosts().forEach(post -> post.setLikesCount(post.getLikesCount() + (int) postLikesAccumulator.pending(post.getId())));
+        }
+        return postPage;
+    }
+
+    @Transactional(readOnly = true)
+    public PostPageDTO searchPostsFullText(String query, Set<String> tags, int pageNumber, int pageSize) {
+        var postSlice = postRepository.findAllByFullText(query, tags, pageSize + 1, (pageNumber - 1) * pageSize);
+        var posts = postSlice.getPosts();
+        var hasNext = posts.size() > pageSize;
+        var pagePosts = hasNext ? posts.subList(0, pageSize) : posts;
         var postPage = new PostPageDTO();
-        postPage.setPosts(postDTOs);
-        var totalPages = (postCount + pageSize - 1) / pageSize;
-        postPage.setLastPage(totalPages);
-        postPage.setHasNext(pageNumber < totalPages);
+        postPage.setPosts(pagePosts.stream().map(this::toDTO).toList());
+        var totalPages = (postSlice.getTotalCount() + pageSize - 1) / pageSize;
+        postPage.setLastPage(hasNext ? Math.max(totalPages, pageNumber + 1) : totalPages);
+        postPage.setHasNext(hasNext);
         postPage.setHasPrev(pageNumber > 1);
         return postPage;
     }
 
+    @Transactional(readOnly = true)
+    public PostPageDTO searchPostsAfter(String title, Set<String> tags, String cursor, int pageSize) throws InvalidCursorException {
+        var afterPostId = StringUtils.hasText(cursor) ? decodeCursor(cursor) : null;
+        var posts = postRepository.findAllAfter(title, tags, pageSize + 1, afterPostId);
+        var hasNext = posts.size() > pageSize;
+        var pagePosts = hasNext ? posts.subList(0, pageSize) : posts;
+        var postPage = new PostPageDTO();
+        postPage.setPosts(pagePosts.stream().map(this::toDTO).toList());
+        postPage.setHasNext(hasNext);
+        postPage.setHasPrev(afterPostId != null);
+        if (hasNext) {
+            postPage.setNextCursor(encodeCursor(pagePosts.get(pagePosts.size() - 1).getId()));
+        }
+        return postPage;
+    }
+
+    @Transactional(readOnly = true)
+    public Optional<String> getPostVersion(long postId) {
+        return postRepository.findVersionById(postId).map(version -> {
+            var pendingLikes = postLikesAccumulator.isEnabled() ? postLikesAccumulator.pending(postId) : 0;
+            return pendingLikes == 0 ? String.valueOf(version) : version + "." + pendingLikes;
+        });
+    }
+
+    @Transactional(readOnly = true)
     public Optional<PostDTO> getPost(long postId) {
-        return getNotDeletedPost(postId).map(this::toDto);
+        return getNotDeletedPost(postId).map(this::toDTO);
     }
 
+    @Transactional
     public PostDTO createPost(PostDataDTO postDataDTO) {
         var post = postRepository.create(postDataDTO.getTitle(), postDataDTO.getText(), postDataDTO.getTags());
-        return toDto(post);
+        postPageCache.invalidateAll();
+        return postMapper.toDTO(post);
     }
 
+    @Transactional
     public PostDTO editPost(long id, PostDataDTO postDataDTO) throws PostNotFoundException {
         getNotDeletedPost(id).orElseThrow(() -> new PostNotFoundException(id));
         postRepository.update(id, postDataDTO.getTitle(), postDataDTO.getText(), postDataDTO.getTags());
-        return getNotDeletedPost(id).map(this::toDto).orElseThrow();
+        postPageCache.invalidateAll();
+        return getNotDeletedPost(id).map(this::toDTO).orElseThrow();
     }
 
+    @Transactional
     public int incrementLikes(long id) throws PostNotFoundException {
-        getNotDeletedPost(id).orElseThrow(() -> new PostNotFoundException(id));
-        postRepository.incrementLikes(id);
-        return getNotDeletedPost(id).map(Post::getLikesCount).orElseThrow();
+        int likesCount;
+        if (postLikesAccumulator.isEnabled()) {
+            var post = getNotDeletedPost(id).orElseThrow(() -> new PostNotFoundException(id));
+            likesCount = post.getLikesCount() + (int) postLikesAccumulator.add(id);
+        } else {
+            likesCount = postRepository.incrementLikes(id).orElseThrow(() -> new PostNotFoundException(id));
+            postPageCache.invalidatePost(id);
+        }
+        return likesCount;
     }
 
-    public void uploadImage(long id, MultipartFile file) throws PostNotFoundException {
-        var post = getNotDeletedPost(id).orElseThrow(() -> new PostNotFoundException(id));
-        if (post.getImageUuid() != null) {
-            postImageService.deleteImage(post.getImageUuid());
-        }
+    public void uploadImage(long id, MultipartFile file) throws PostNotFoundException, ImageTooLargeException, ImageQueueFullException {
         try (var imageIs = file.getInputStream()) {
-            var imageUuid = postImageService.saveImage(imageIs);
-            postRepository.updateImageUuid(id, imageUuid);
+            uploadImage(id, imageIs);
         } catch (IOException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
     }
 
-    public Optional<Resource> getImage(long id) throws PostNotFoundException {
-        var post = getNotDeletedPost(id).orElseThrow(() -> new PostNotFoundException(id));
-        if (post.getImageUuid() == null) {
-            return Optional.empty();
-        }
-        try {
-            return Optional.of(new InputStreamResource(postImageService.getImage(post.getImageUuid())));
-        } catch (ImageNotFoundException e) {
-            throw new RuntimeException(e.getMessage(), e);
+    // Тело запроса читаем до начала транзакции, чтобы медленная загрузка не держала соединение из пула
+    public void uploadImage(long id, InputStream imageIs) throws PostNotFoundException, ImageTooLargeException, ImageQueueFullException {
+        getNotDeletedPost(id).orElseThrow(() -> new PostNotFoundException(id));
+        imageProcessingPipeline.reserve();
+        try (var stagedImage = postImageService.stageImage(imageIs)) {
+            var image = stagedImage.getImage();
+            // Пост могли удалить, пока шла загрузка, поэтому проверяем его ещё раз уже в транзакции
+            var post = transactionTemplate.execute(status -> getNotDeletedPost(id).map(notDeletedPost -> {
+                postImageService.storeImage(stagedImage);
+                postRepository.updateImageUuid(id, image.getUuid());
+                return notDeletedPost;
+            })).orElseThrow(() -> new PostNotFoundException(id));
+            // Проверка, уменьшенные копии и удаление старой картинки выполняются в фоне
+            imageProcessingPipeline.submitAfterCommit(id, image.getUuid(), post.getImageUuid());
+        } catch (PostNotFoundException | ImageTooLargeException | RuntimeException e) {
+            imageProcessingPipeline.release();
+            throw e;
         }
     }
 
+    @Transactional(readOnly = true)
+    public Optional<ImageJobStatusDTO> getImageStatus(long id) throws PostNotFoundException {
+        var post = getNotDeletedPost(id).orElseThrow(() -> new PostNotFoundException(id));
+        return imageProcessingPipeline.getStatus(id)
+                .or(() -> Optional.ofNullable(post.getImageUuid())
+                        .map(imageUuid -> new ImageJobStatusDTO(imageUuid, ImageJobStatusDTO.State.DONE, null)));
+    }
+
+    @Transactional(readOnly = true)
+    public Optional<UUID> getImageUuid(long id) throws PostNotFoundException {
+        var post = getNotDeletedPost(id).orElseThrow(() -> new PostNotFoundException(id));
+        return Optional.ofNullable(post.getImageUuid());
+    }
+
+    public ImageDTO getImage(UUID imageUuid, ImageVariant variant) throws ImageNotFoundException {
+        return postImageService.getImage(imageUuid, variant);
+    }
+
+    @Transactional
     public void deletePost(long id) {
         postRepository.deleteById(id);
+        postPageCache.invalidateAll();
+    }
+
+    private PostPageDTO loadPosts(String title, Set<String> tags, int pageNumber, int pageSize) {
+        var offset = (pageNumber - 1) * pageSize;
+        List<Post> posts;
+        int postCount;
+        var cachedPostCount = postCountCache.get(title, tags);
+        if (cachedPostCount.isPresent()) {
+            posts = postRepository.findAll(title, tags, pageSize + 1, offset);
+            postCount = cachedPostCount.getAsInt();
+        } else {
+            var postSlice = postRepository.findAllWithTotal(title, tags, pageSize + 1, offset);
+            posts = postSlice.getPosts();
+            postCount = postSlice.getTotalCount();
+            postCountCache.put(title, tags, postCount);
+        }
+        var hasNext = posts.size() > pageSize;
+        var pagePosts = hasNext ? posts.subList(0, pageSize) : posts;
+        var postPage = new PostPageDTO();
+        postPage.setPosts(pagePosts.stream().map(postMapper::toDTO).toList());
+        var totalPages = (postCount + pageSize - 1) / pageSize;
+        postPage.setLastPage(hasNext ? Math.max(totalPages, pageNumber + 1) : totalPages);
+        postPage.setHasNext(hasNext);
+        postPage.setHasPrev(pageNumber > 1);
+        if (hasNext) {
+            postPage.setNextCursor(encodeCursor(pagePosts.get(pagePosts.size() - 1).getId()));
+        }
+        return postPage;
+    }
+
+    private PostDTO toDTO(Post post) {
+        var postDTO = postMapper.toDTO(post);
+        if (postLikesAccumulator.isEnabled()) {
+            postDTO.setLikesCount(postDTO.getLikesCount() + (int) postLikesAccumulator.pending(post.getId()));
+        }
+        return postDTO;
     }
 
     private Optional<Post> getNotDeletedPost(long id) {
         return postRepository.findById(id).filter(post -> !post.isDeleted());
     }
 
-    private PostDTO toDto(Post post) {
-        var postDto = postMapper.toDTO(post);
-        postDto.setCommentsCount(commentRepository.countByPostId(post.getId()));
-        return postDto;
+    private String encodeCursor(long postId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(String.valueOf(postId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private long decodeCursor(String cursor) throws InvalidCursorException {
+        try {
+            return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException(cursor);
+        }
     }
 }
@@ -0,0 +1,377 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.dgaponov99.practicum.myblog.dto.PostImportResultDTO;
+import com.github.dgaponov99.practicum.myblog.dto.data.CommentDataDTO;
+import com.github.dgaponov99.practicum.myblog.dto.data.PostDataDTO;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Comment;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.CommentRepository;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+@Slf4j
+@Service
+public class PostTransferService {
+
+    private final PostRepository postRepository;
+    private final CommentRepository commentRepository;
+    private final PostPageCache postPageCache;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final TransactionTemplate transactionTemplate;
+
+    public PostTransferService(PostRepository postRepository,
+                               CommentRepository commentRepository,
+                               PostPageCache postPageCache,
+                               ObjectMapper objectMapper,
+                               Validator validator,
+                               PlatformTransactionManager transactionManager) {
+        this.postRepository = postRepository;
+        this.commentRepository = commentRepository;
+        this.postPageCache = postPageCache;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    // Построчный JSON: один пост с тегами и комментариями на строку, пишется по мере чтения курсора
+    @Transactional(readOnly = true)
+    public void exportPosts(OutputStream outputStream) throws IOException {
+        // Оборванная из-за ошибки выгрузка не должна заканчиваться полной строкой
+        try (var generator = objectMapper.createGenerator(outputStream)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT)) {
+            generator.setRootValueSeparator(null);
+            var hasPost = new boolean[1];
+            postRepository.streamAllWithComments(post -> {
+                try {
+                    if (hasPost[0]) {
+                        writePostEnd(generator);
+                    }
+                    hasPost[0] = true;
+                    writePostStart(generator, post);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, comment -> {
+                try {
+                    generator.writeStartObject();
+                    generator.writeNumberField("id", comment.getId());
+                    generator.writeStringField("text", comment.getText());
+                    generator.writeEndObject();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            if (hasPost[0]) {
+                writePostEnd(generator);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Посты пишутся пачками, каждая в своей транзакции; комментарии должны быть последним полем поста
+    public PostImportResultDTO importPosts(InputStream ndjson, int batchSize) {
+        var result = new PostImportResultDTO();
+        var batch = new ImportBatch(batchSize, result);
+        try (var parser = objectMapper.createParser(ndjson)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JsonParseException(parser, "Expected post object, got " + token);
+                }
+                if (!readPost(parser, batch)) {
+                    break;
+                }
+            }
+        } catch (JsonProcessingException e) {
+            var location = e.getLocation();
+            result.setError(location != null ? e.getOriginalMessage() + " at line " + location.getLineNr() : e.getOriginalMessage());
+            batch.dropCurrentPost();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (batch.isWritable()) {
+            batch.flush();
+        }
+        if (result.getImportedPosts() > 0) {
+            postPageCache.invalidateAll();
+        }
+        return result;
+    }
+
+    private void writePostStart(JsonGenerator generator, Post post) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", post.getId());
+        generator.writeStringField("title", post.getTitle());
+        generator.writeStringField("text", post.getText());
+        generator.writeArrayFieldStart("tags");
+        for (var tag : new TreeSet<>(post.getTags())) {
+            generator.writeString(tag);
+        }
+        generator.writeEndArray();
+        generator.writeNumberField("likesCount", post.getLikesCount());
+        generator.writeArrayFieldStart("comments");
+    }
+
+    private void writePostEnd(JsonGenerator generator) throws IOException {
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private boolean readPost(JsonParser parser, ImportBatch batch) throws IOException {
+        var postData = new PostDataDTO();
+        var likesCount = 0;
+        var valid = true;
+        var started = false;
+        var accepted = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.currentName();
+            var token = parser.nextToken();
+            if (started) {
+                // Пост уже записывается вместе с комментариями, поля после них не читаем
+                parser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case "title" -> postData.setTitle(readText(parser));
+                case "text" -> postData.setText(readText(parser));
+                case "tags" -> valid &= readTags(parser, postData.getTags());
+                case "likesCount" -> {
+                    if (token == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() == JsonParser.NumberType.INT) {
+                        likesCount = parser.getIntValue();
+                    } else if (token != JsonToken.VALUE_NULL) {
+                        valid = false;
+                        parser.skipChildren();
+                    }
+                }
+                case "comments" -> {
+                    started = true;
+                    valid &= token == JsonToken.START_ARRAY || token == JsonToken.VALUE_NULL;
+                    accepted = valid && startPost(batch, postData, likesCount);
+                    if (!accepted) {
+                        parser.skipChildren();
+                    } else if (!readComments(parser, batch)) {
+                        return false;
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        if (!started) {
+            accepted = valid && startPost(batch, postData, likesCount);
+        }
+        if (!accepted) {
+            batch.rejectPost();
+            return true;
+        }
+        return batch.finishPost();
+    }
+
+    private boolean readComments(JsonParser parser, ImportBatch batch) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            return true;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            CommentDataDTO commentData = null;
+            if (parser.currentToken() == JsonToken.START_OBJECT) {
+                commentData = new CommentDataDTO();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    var field = parser.currentName();
+                    parser.nextToken();
+                    if ("text".equals(field)) {
+                        commentData.setText(readText(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+            if (commentData != null && validator.validate(commentData).isEmpty()) {
+                if (!batch.addComment(commentData.getText())) {
+                    return false;
+                }
+            } else {
+                batch.rejectComment();
+            }
+        }
+        return true;
+    }
+
+    private boolean readTags(JsonParser parser, Set<String> tags) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return true;
+        }
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return false;
+        }
+        var valid = true;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            var tag = readText(parser);
+            if (tag == null) {
+                valid = false;
+            } else {
+                tags.add(tag);
+            }
+        }
+        return valid;
+    }
+
+    private String readText(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private boolean startPost(ImportBatch batch, PostDataDTO postData, int likesCount) {
+        if (likesCount < 0 || !validator.validate(postData).isEmpty()) {
+            return false;
+        }
+        batch.startPost(new Post(null, postData.getTitle(), postData.getText(), likesCount, 0, null, postData.getTags(), false));
+        return true;
+    }
+
+    private class ImportBatch {
+
+        private final int batchSize;
+        private final PostImportResultDTO result;
+        private final List<Post> posts = new ArrayList<>();
+        private final List<List<String>> postComments = new ArrayList<>();
+        // Комментарии поста, записанного предыдущей пачкой: у поста много комментариев и он не уместился в одну пачку
+        private final List<String> tailComments = new ArrayList<>();
+        private Long tailPostId;
+        private boolean inPost;
+        private boolean currentInTail;
+        private int rows;
+        private boolean failed;
+
+        private ImportBatch(int batchSize, PostImportResultDTO result) {
+            this.batchSize = batchSize;
+            this.result = result;
+        }
+
+        private void startPost(Post post) {
+            posts.add(post);
+            postComments.add(new ArrayList<>());
+            inPost = true;
+            currentInTail = false;
+            rows++;
+        }
+
+        private boolean addComment(String text) {
+            if (currentInTail) {
+                tailComments.add(text);
+            } else {
+                postComments.get(postComments.size() - 1).add(text);
+            }
+            return ++rows < batchSize || flush();
+        }
+
+        private boolean finishPost() {
+            inPost = false;
+            currentInTail = false;
+            return rows < batchSize || flush();
+        }
+
+        // Незаконченный из-за ошибки разбора пост не записываем, если он ещё не попал в базу
+        private void dropCurrentPost() {
+            if (inPost && !currentInTail) {
+                rows -= 1 + postComments.remove(postComments.size() - 1).size();
+                posts.remove(posts.size() - 1);
+                rejectPost();
+            }
+            inPost = false;
+        }
+
+        private void rejectPost() {
+            result.setRejectedPosts(result.getRejectedPosts() + 1);
+        }
+
+        private void rejectComment() {
+            result.setRejectedComments(result.getRejectedComments() + 1);
+        }
+
+        private boolean isWritable() {
+            return !failed;
+        }
+
+        private boolean flush() {
+            if (posts.isEmpty() && tailComments.isEmpty()) {
+                return true;
+            }
+            try {
+                var written = transactionTemplate.execute(status -> write());
+                result.setBatches(result.getBatches() + 1);
+                result.setImportedPosts(result.getImportedPosts() + posts.size());
+                result.setImportedComments(result.getImportedComments() + written.importedComments());
+                if (inPost && !currentInTail) {
+                    tailPostId = written.postIds().get(written.postIds().size() - 1);
+                    currentInTail = true;
+                } else if (!inPost) {
+                    tailPostId = null;
+                }
+                return true;
+            } catch (DataAccessException e) {
+                log.warn("Failed to import posts batch {}", result.getBatches() + 1, e);
+                result.setError(e.getMostSpecificCause().getMessage());
+                failed = true;
+                return false;
+            } finally {
+                posts.clear();
+                postComments.clear();
+                tailComments.clear();
+                rows = 0;
+            }
+        }
+
+        private Written write() {
+            for (int i = 0; i < posts.size(); i++) {
+                posts.get(i).setCommentsCount(postComments.get(i).size());
+            }
+            var postIds = postRepository.createAll(posts);
+            var comments = new ArrayList<Comment>();
+            for (int i = 0; i < postIds.size(); i++) {
+                for (var text : postComments.get(i)) {
+                    comments.add(new Comment(null, postIds.get(i), text, false));
+                }
+            }
+            long importedComments = commentRepository.copyAll(comments);
+            if (!tailComments.isEmpty()) {
+                importedComments += commentRepository.copyAll(tailPostId, tailComments);
+            }
+            return new Written(postIds, importedComments);
+        }
+
+    }
+
+    private record Written(List<Long> postIds, long importedComments) {
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.github.dgaponov99.practicum.myblog.web;
+
+import com.github.dgaponov99.practicum.myblog.dto.MeterDTO;
+import com.github.dgaponov99.practicum.myblog.service.MetricsService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/admin/metrics")
+@RequiredArgsConstructor
+public class MetricsController {
+
+    private final MetricsService metricsService;
+
+    @GetMapping()
+    public ResponseEntity<List<MeterDTO>> getMetrics(@RequestParam(name = "prefix", defaultValue = "") String prefix) {
+        return ResponseEntity.ok(metricsService.getMeters(prefix));
+    }
+
+}
@@ -1,43 +1,79 @@
 package com.github.dgaponov99.practicum.myblog.web;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.dgaponov99.practicum.myblog.dto.CommentDTO;
+import com.github.dgaponov99.practicum.myblog.dto.CommentImportChunkDTO;
+import com.github.dgaponov99.practicum.myblog.dto.ImageJobStatusDTO;
+import com.github.dgaponov99.practicum.myblog.dto.ImageVariant;
 import com.github.dgaponov99.practicum.myblog.dto.PostDTO;
 import com.github.dgaponov99.practicum.myblog.dto.PostPageDTO;
 import com.github.dgaponov99.practicum.myblog.dto.data.CommentDataDTO;
 import com.github.dgaponov99.practicum.myblog.dto.data.PostDataDTO;
 import com.github.dgaponov99.practicum.myblog.exception.CommentNotFoundException;
+import com.github.dgaponov99.practicum.myblog.exception.ImageNotFoundException;
+import com.github.dgaponov99.practicum.myblog.exception.ImageQueueFullException;
+import com.github.dgaponov99.practicum.myblog.exception.ImageTooLargeException;
+import com.github.dgaponov99.practicum.myblog.exception.InvalidCursorException;
 import com.github.dgaponov99.practicum.myblog.exception.PostNotFoundException;
 import com.github.dgaponov99.practicum.myblog.service.CommentService;
 import com.github.dgaponov99.practicum.myblog.service.PostService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/posts")
 @RequiredArgsConstructor
 public class PostController {
 
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
     private final PostService postService;
     private final CommentService commentService;
+    private final ObjectMapper objectMapper;
 
     @Value("${posts.search.text.length:128}")
     private int searchTextLength;
 
+    @Value("${posts.comments.max-limit:500}")
+    private int maxCommentsLimit;
+
+    @Value("${posts.comments.import.chunk-size:1000}")
+    private int importChunkSize;
+
+    @Value("${posts.comments.import.max-chunk-size:10000}")
+    private int maxImportChunkSize;
+
     @GetMapping()
     public ResponseEntity<PostPageDTO> searchPosts(
             @RequestParam(name = "search", defaultValue = "") String search,
             @RequestParam(name = "pageNumber", defaultValue = "1") int pageNumber,
-            @RequestParam(name = "pageSize", defaultValue = "10") int pageSize) {
+            @RequestParam(name = "pageSize", defaultValue = "10") int pageSize,
+            @RequestParam(name = "after", required = false) String after,
+            @RequestParam(name = "fullText", defaultValue = "false") boolean fullText) {
         var title = new StringBuilder();
         var tags = new HashSet<String>();
         if (StringUtils.hasText(search)) {
@@ -50,7 +86,22 @@ public class PostController {
             }
         }
         title = new StringBuilder(title.toString().trim());
-        var postPage = postService.searchPosts(title.toString(), tags, pageNumber, pageSize);
+        PostPageDTO postPage;
+        if (fullText) {
+            // Ранжированная выдача не упорядочена по идентификатору, курсор по нему к ней неприменим
+            if (after != null) {
+                return ResponseEntity.badRequest().build();
+            }
+            postPage = postService.searchPostsFullText(title.toString(), tags, pageNumber, pageSize);
+        } else if (after != null) {
+            try {
+                postPage = postService.searchPostsAfter(title.toString(), tags, after, pageSize);
+            } catch (InvalidCursorException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        } else {
+            postPage = postService.searchPosts(title.toString(), tags, pageNumber, pageSize);
+        }
         postPage.getPosts().forEach(post -> {
             if (post.getText().length() > searchTextLength) {
                 post.setText(post.getText().substring(0, searchTextLength) + "...");
@@ -60,8 +111,18 @@ public class PostController {
     }
 
     @GetMapping("/{postId}")
-    public ResponseEntity<PostDTO> getPost(@PathVariable("postId") long postId) {
-        return ResponseEntity.of(postService.getPost(postId));
+    public ResponseEntity<PostDTO> getPost(@PathVariable("postId") long postId, WebRequest webRequest) {
+        var version = postService.getPostVersion(postId);
+        if (version.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        var eTag = "\"post-%s-%s\"".formatted(postId, version.get());
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(CacheControl.noCache()).build();
+        }
+        return postService.getPost(postId)
+                .map(post -> ResponseEntity.ok().eTag(eTag).cacheControl(CacheControl.noCache()).body(post))
+                .orElse(ResponseEntity.notFound().build());
     }
 
     @PostMapping()
@@ -99,26 +160,158 @@ public class PostController {
                                             @RequestParam("image") MultipartFile image) {
         try {
             postService.uploadImage(postId, image);
-            return ResponseEntity.ok().build();
+            return ResponseEntity.accepted().build();
+        } catch (PostNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (ImageTooLargeException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        } catch (ImageQueueFullException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+        }
+    }
+
+    // Картинка в теле запроса пишется на диск по мере чтения, без буферизации multipart
+    @PutMapping(value = "/{postId}/image", consumes = {"image/*", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<Void> uploadImageStream(@PathVariable("postId") long postId, InputStream image) {
+        try {
+            postService.uploadImage(postId, image);
+            return ResponseEntity.accepted().build();
         } catch (PostNotFoundException e) {
             return ResponseEntity.notFound().build();
+        } catch (ImageTooLargeException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        } catch (ImageQueueFullException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
         }
     }
 
-    @GetMapping(value = "/{postId}/image", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-    public ResponseEntity<Resource> downloadImage(@PathVariable("postId") long postId) {
+    @GetMapping("/{postId}/image/status")
+    public ResponseEntity<ImageJobStatusDTO> getImageStatus(@PathVariable("postId") long postId) {
         try {
-            return postService.getImage(postId).map(ResponseEntity::ok)
-                    .orElse(ResponseEntity.notFound().build());
+            return ResponseEntity.of(postService.getImageStatus(postId));
         } catch (PostNotFoundException e) {
             return ResponseEntity.notFound().build();
         }
     }
 
+    @GetMapping("/{postId}/image")
+    public ResponseEntity<Resource> downloadImage(@PathVariable("postId") long postId,
+                                                  @RequestParam(name = "v", required = false) String imageVersion,
+                                                  @RequestParam(name = "size", defaultValue = "original") String size,
+                                                  WebRequest webRequest,
+                                                  HttpServletRequest request) {
+        var variant = ImageVariant.fromName(size).orElse(null);
+        if (variant == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            var imageUuid = postService.getImageUuid(postId).orElse(null);
+            if (imageUuid == null) {
+                return ResponseEntity.notFound().build();
+            }
+            // Пока уменьшенная копия не готова, отдаётся исходная картинка, поэтому ETag зависит от отданного варианта
+            var image = variant != ImageVariant.ORIGINAL ? postService.getImage(imageUuid, variant) : null;
+            var servedVariant = image != null ? image.getVariant() : ImageVariant.ORIGINAL;
+            var eTag = servedVariant == ImageVariant.ORIGINAL
+                    ? "\"%s\"".formatted(imageUuid)
+                    : "\"%s-%s\"".formatted(imageUuid, servedVariant.getName());
+            // Картинка неизменна только по адресу с её версией, без версии клиент должен перепроверять ETag
+            var cacheControl = imageUuid.toString().equals(imageVersion) && servedVariant == variant
+                    ? CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable()
+                    : CacheControl.noCache();
+            if (webRequest.checkNotModified(eTag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(cacheControl).build();
+            }
+            if (image == null) {
+                image = postService.getImage(imageUuid, ImageVariant.ORIGINAL);
+            }
+            var response = ResponseEntity.ok()
+                    .eTag(eTag)
+                    .cacheControl(cacheControl)
+                    .contentType(MediaType.parseMediaType(image.getContentType()))
+                    .header("X-Content-Type-Options", "nosniff");
+            if (canSendfile(request, image.getResource())) {
+                // Файл целиком отдаёт Tomcat через sendfile, минуя heap; диапазоны обрабатывает Spring
+                var file = image.getResource().getFile();
+                request.setAttribute(SENDFILE_FILENAME_ATTR, file.getCanonicalPath());
+                request.setAttribute(SENDFILE_START_ATTR, 0L);
+                request.setAttribute(SENDFILE_END_ATTR, file.length());
+                return response.header(HttpHeaders.ACCEPT_RANGES, "bytes").contentLength(file.length()).build();
+            }
+            return response.body(image.getResource());
+        } catch (PostNotFoundException | ImageNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e.getMessage(), e);
+        }
+    }
+
     @GetMapping("/{postId}/comments")
-    public ResponseEntity<List<CommentDTO>> getComments(@PathVariable("postId") long postId) {
+    public ResponseEntity<List<CommentDTO>> getComments(@PathVariable("postId") long postId,
+                                                        @RequestParam(name = "after", required = false) Long after,
+                                                        @RequestParam(name = "limit", required = false) Integer limit,
+                                                        WebRequest webRequest) {
+        if ((after != null && after < 0) || (limit != null && (limit < 1 || limit > maxCommentsLimit))) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            var eTag = "\"comments-%s-%s\"".formatted(postId, commentService.getCommentsVersion(postId));
+            if (webRequest.checkNotModified(eTag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(CacheControl.noCache()).build();
+            }
+            var comments = after == null && limit == null
+                    ? commentService.getByPostId(postId)
+                    : commentService.getByPostIdAfter(postId, after, limit != null ? limit : maxCommentsLimit);
+            return ResponseEntity.ok().eTag(eTag).cacheControl(CacheControl.noCache()).body(comments);
+        } catch (PostNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    // Весь список комментариев пишется в ответ по мере чтения из базы, без сборки в памяти
+    @GetMapping(value = "/{postId}/comments", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamComments(@PathVariable("postId") long postId, WebRequest webRequest) {
+        try {
+            var eTag = "\"comments-%s-%s\"".formatted(postId, commentService.getCommentsVersion(postId));
+            if (webRequest.checkNotModified(eTag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(CacheControl.noCache()).build();
+            }
+            StreamingResponseBody body = outputStream -> {
+                // Оборванный из-за ошибки поток не должен выглядеть как полный массив
+                try (var generator = objectMapper.createGenerator(outputStream)
+                        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                        .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT)) {
+                    generator.writeStartArray();
+                    commentService.streamByPostId(postId, comment -> {
+                        try {
+                            generator.writeObject(comment);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    generator.writeEndArray();
+                }
+            };
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .eTag(eTag)
+                    .cacheControl(CacheControl.noCache())
+                    .body(body);
+        } catch (PostNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    // Построчный JSON: один комментарий {"text": "..."} на строку
+    @PostMapping(value = "/{postId}/comments/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<List<CommentImportChunkDTO>> importComments(@PathVariable("postId") long postId,
+                                                                      @RequestParam(name = "chunkSize", required = false) Integer chunkSize,
+                                                                      InputStream comments) {
+        if (chunkSize != null && (chunkSize < 1 || chunkSize > maxImportChunkSize)) {
+            return ResponseEntity.badRequest().build();
+        }
         try {
-            return ResponseEntity.ok(commentService.getByPostId(postId));
+            return ResponseEntity.ok(commentService.importComments(postId, comments, chunkSize != null ? chunkSize : importChunkSize));
         } catch (PostNotFoundException e) {
             return ResponseEntity.notFound().build();
         }
@@ -153,12 +346,8 @@ public class PostController {
     public ResponseEntity<CommentDTO> editComment(@PathVariable("postId") long postId,
                                                   @PathVariable("commentId") long commentId,
                                                   @RequestBody @Valid CommentDataDTO commentData) {
-        var comment = commentService.getComment(commentId).orElse(null);
-        if (comment != null && comment.getPostId() != postId) {
-            return ResponseEntity.notFound().build();
-        }
         try {
-            return ResponseEntity.ok(commentService.editComment(commentId, commentData));
+            return ResponseEntity.ok(commentService.editComment(postId, commentId, commentData));
         } catch (CommentNotFoundException e) {
             return ResponseEntity.notFound().build();
         }
@@ -175,4 +364,10 @@ public class PostController {
         return ResponseEntity.ok().build();
     }
 
+    private boolean canSendfile(HttpServletRequest request, Resource resource) {
+        return Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))
+                && request.getHeader(HttpHeaders.RANGE) == null
+                && resource.isFile();
+    }
+
 }
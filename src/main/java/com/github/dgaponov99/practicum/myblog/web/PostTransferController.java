@@ -0,0 +1,48 @@
+package com.github.dgaponov99.practicum.myblog.web;
+
+import com.github.dgaponov99.practicum.myblog.dto.PostImportResultDTO;
+import com.github.dgaponov99.practicum.myblog.service.PostTransferService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.InputStream;
+
+@RestController
+@RequestMapping("/api/admin/posts")
+@RequiredArgsConstructor
+public class PostTransferController {
+
+    private final PostTransferService postTransferService;
+
+    @Value("${posts.transfer.import.batch-size:5000}")
+    private int importBatchSize;
+
+    @Value("${posts.transfer.import.max-batch-size:50000}")
+    private int maxImportBatchSize;
+
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportPosts() {
+        StreamingResponseBody body = postTransferService::exportPosts;
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename("posts.ndjson").build().toString())
+                .body(body);
+    }
+
+    // Формат тот же, что у выгрузки; идентификаторы постов и комментариев при загрузке назначаются заново
+    @PostMapping(value = "/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<PostImportResultDTO> importPosts(@RequestParam(name = "batchSize", required = false) Integer batchSize,
+                                                           InputStream posts) {
+        if (batchSize != null && (batchSize < 1 || batchSize > maxImportBatchSize)) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(postTransferService.importPosts(posts, batchSize != null ? batchSize : importBatchSize));
+    }
+
+}
@@ -0,0 +1,17 @@
+-- Счётчики существующих постов заполняются один раз, только когда колонка действительно добавлена
+do
+$$
+    begin
+        if not exists (select 1
+                       from information_schema.columns
+                       where table_schema = current_schema()
+                         and table_name = 'posts'
+                         and column_name = 'comments_count') then
+            alter table posts add column comments_count integer;
+            update posts p
+            set comments_count = (select count(*) from comments c where c.post_id = p.post_id and not c.deleted);
+            alter table posts alter column comments_count set default 0;
+            alter table posts alter column comments_count set not null;
+        end if;
+    end
+$$;
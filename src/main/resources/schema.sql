@@ -1,13 +1,28 @@
+create sequence if not exists content_version_seq;
+
 create table if not exists posts
 (
-    post_id     bigserial primary key,
-    title       varchar(256)  not null,
-    text        varchar(4000) not null,
-    likes_count integer       not null default 0,
-    image_uuid  varchar(36),
-    deleted     boolean       not null default false
+    post_id        bigserial primary key,
+    title          varchar(256)  not null,
+    text           varchar(4000) not null,
+    likes_count    integer       not null default 0,
+    comments_count integer       not null default 0,
+    image_uuid     varchar(36),
+    deleted        boolean       not null default false,
+    version        bigint        not null default nextval('content_version_seq')
 );
 
+alter table posts add column if not exists version bigint not null default nextval('content_version_seq');
+
+create extension if not exists pg_trgm;
+
+create index if not exists posts_title_trgm_idx on posts using gin (lower(title) gin_trgm_ops);
+
+alter table posts add column if not exists search_vector tsvector
+    generated always as (to_tsvector('russian', title || ' ' || text)) stored;
+
+create index if not exists posts_search_vector_idx on posts using gin (search_vector);
+
 create table if not exists post_tag
 (
     post_id bigint references posts (post_id),
@@ -16,10 +31,36 @@ create table if not exists post_tag
     primary key (post_id, tag)
 );
 
+create index if not exists post_tag_tag_post_id_idx on post_tag (tag, post_id);
+
 create table if not exists comments
 (
     comment_id bigserial primary key,
     post_id    bigint       not null references posts (post_id),
     text       varchar(512) not null,
     deleted    boolean      not null default false
-);
\ No newline at end of file
+);
+
+create table if not exists images
+(
+    image_uuid   varchar(36) primary key,
+    content_type varchar(128) not null,
+    size         bigint       not null,
+    sha256       varchar(64)
+);
+
+alter table images
+    add column if not exists sha256 varchar(64);
+
+create table if not exists image_blobs
+(
+    sha256    varchar(64) primary key,
+    ref_count integer not null
+);
+
+alter table images
+    add column if not exists created_at timestamp not null default now();
+
+create index if not exists posts_image_uuid_idx on posts (image_uuid) where not deleted;
+
+create index if not exists comments_post_id_comment_id_idx on comments (post_id, comment_id) where not deleted;
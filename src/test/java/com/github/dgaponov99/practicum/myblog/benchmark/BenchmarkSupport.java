@@ -0,0 +1,31 @@
+package com.github.dgaponov99.practicum.myblog.benchmark;
+
+import java.util.Arrays;
+
+final class BenchmarkSupport {
+
+    static final int WARMUP_ITERATIONS = 5;
+    static final int MEASURE_ITERATIONS = 20;
+
+    private BenchmarkSupport() {
+    }
+
+    static double measureMillis(Runnable action) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            action.run();
+        }
+        var timings = new long[MEASURE_ITERATIONS];
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            var startedAt = System.nanoTime();
+            action.run();
+            timings[i] = System.nanoTime() - startedAt;
+        }
+        Arrays.sort(timings);
+        return timings[MEASURE_ITERATIONS / 2] / 1_000_000.0;
+    }
+
+    static void report(String benchmark, String variant, Object parameter, double value, String unit) {
+        System.out.printf("%-24s %-20s %-12s %10.3f %s%n", benchmark, variant, parameter, value, unit);
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.github.dgaponov99.practicum.myblog.benchmark;
+
+import com.github.dgaponov99.practicum.myblog.config.RepositoryITConfig;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.CommentRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Tag("benchmark")
+@SpringJUnitConfig(classes = {RepositoryITConfig.class})
+public class CommentImportBenchmarkTest extends PostgresBenchmark {
+
+    private static final int ROW_BY_ROW_COMMENTS = 10_000;
+    private static final int COPY_COMMENTS = 100_000;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    CommentRepository commentRepository;
+
+    private long postId;
+
+    @BeforeEach
+    void fillDb() {
+        jdbcTemplate.update("truncate table posts, post_tag, comments restart identity cascade;");
+        postId = jdbcTemplate.queryForObject("insert into posts (title, text) values ('Обсуждаемый пост', 'Тело') returning post_id;", Long.class);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "100",
+            "1000",
+            "10000"
+    })
+    void commentsPerSecond(int chunkSize) {
+        var startedAt = System.nanoTime();
+        for (int i = 0; i < ROW_BY_ROW_COMMENTS; i++) {
+            commentRepository.create(postId, "Комментарий " + i);
+        }
+        report("comment-import", "row-by-row", chunkSize, ROW_BY_ROW_COMMENTS / seconds(startedAt), "comments/s");
+
+        var texts = new ArrayList<String>(chunkSize);
+        for (int i = 0; i < chunkSize; i++) {
+            texts.add("Комментарий, \"импортированный\" " + i);
+        }
+        startedAt = System.nanoTime();
+        for (int imported = 0; imported < COPY_COMMENTS; imported += chunkSize) {
+            commentRepository.copyAll(postId, List.copyOf(texts));
+        }
+        report("comment-import", "copy", chunkSize, COPY_COMMENTS / seconds(startedAt), "comments/s");
+
+        assertEquals(ROW_BY_ROW_COMMENTS + COPY_COMMENTS, jdbcTemplate.queryForObject("select count(*) from comments;", Integer.class));
+    }
+
+    private double seconds(long startedAt) {
+        return (System.nanoTime() - startedAt) / 1_000_000_000.0;
+    }
+
+}
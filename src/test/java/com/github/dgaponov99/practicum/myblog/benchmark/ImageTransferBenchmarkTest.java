@@ -0,0 +1,113 @@
+package com.github.dgaponov99.practicum.myblog.benchmark;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Tag("benchmark")
+public class ImageTransferBenchmarkTest {
+
+    private static final int IMAGE_SIZE = 5 * 1024 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private Path imagePath;
+    private SocketChannel serverSide;
+    private SocketChannel clientSide;
+    private ExecutorService drainer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        var imageBytes = new byte[IMAGE_SIZE];
+        new Random(42).nextBytes(imageBytes);
+        imagePath = Files.write(tempDir.resolve("image"), imageBytes);
+
+        try (var server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            clientSide = SocketChannel.open(server.getLocalAddress());
+            serverSide = server.accept();
+        }
+        // Клиент вычитывает и выбрасывает всё, что пришло, иначе запись упрётся в буфер сокета
+        drainer = Executors.newSingleThreadExecutor();
+        drainer.submit(() -> {
+            var buffer = ByteBuffer.allocateDirect(64 * 1024);
+            while (clientSide.read(buffer) >= 0) {
+                buffer.clear();
+            }
+            return null;
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        serverSide.close();
+        drainer.shutdown();
+        drainer.awaitTermination(10, TimeUnit.SECONDS);
+        clientSide.close();
+    }
+
+    // Копирование через heap, как у InputStreamResource, против transferTo, на котором держится sendfile
+    @Test
+    void transferImage() {
+        run("input-stream", this::copyThroughHeap);
+        run("file-channel", this::transferFromChannel);
+    }
+
+    private void run(String variant, Runnable transfer) {
+        var allocatedBefore = allocatedBytes();
+        transfer.run();
+        var allocatedPerTransfer = allocatedBytes() - allocatedBefore;
+
+        var medianMillis = BenchmarkSupport.measureMillis(transfer);
+        BenchmarkSupport.report("image-transfer", variant, "5MB", IMAGE_SIZE / 1024.0 / 1024.0 / (medianMillis / 1000.0), "MB/s");
+        BenchmarkSupport.report("image-transfer", variant, "5MB", allocatedPerTransfer / 1024.0, "KB allocated");
+    }
+
+    private void copyThroughHeap() {
+        try (var imageIs = Files.newInputStream(imagePath)) {
+            assertEquals(IMAGE_SIZE, StreamUtils.copy(imageIs, Channels.newOutputStream(serverSide)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void transferFromChannel() {
+        try (var imageChannel = FileChannel.open(imagePath)) {
+            long position = 0;
+            while (position < IMAGE_SIZE) {
+                position += imageChannel.transferTo(position, IMAGE_SIZE - position, serverSide);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long allocatedBytes() {
+        var threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getCurrentThreadAllocatedBytes();
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.github.dgaponov99.practicum.myblog.benchmark;
+
+import com.github.dgaponov99.practicum.myblog.config.RepositoryITConfig;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import com.github.dgaponov99.practicum.myblog.service.PostLikesAccumulator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Tag("benchmark")
+@SpringJUnitConfig(classes = {RepositoryITConfig.class})
+public class LikesBenchmarkTest extends PostgresBenchmark {
+
+    private static final long DURATION_MILLIS = 5_000;
+    private static final long FLUSH_INTERVAL_MILLIS = 1_000;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    PostRepository postRepository;
+
+    private long postId;
+
+    @BeforeEach
+    void fillDb() {
+        jdbcTemplate.update("truncate table posts, post_tag, comments restart identity cascade;");
+        postId = jdbcTemplate.queryForObject("insert into posts (title, text) values ('Вирусный пост', 'Тело') returning post_id;", Long.class);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "1",
+            "8",
+            "32"
+    })
+    void likesPerSecond(int threads) throws Exception {
+        var directLikes = runLoad(threads, () -> postRepository.incrementLikes(postId));
+        assertEquals(directLikes, likesCount());
+        report("likes", "row-update", threads, directLikes * 1000.0 / DURATION_MILLIS, "likes/s");
+
+        jdbcTemplate.update("update posts set likes_count = 0 where post_id = ?;", postId);
+        var accumulator = new PostLikesAccumulator(true, postRepository, event -> {});
+        var flusher = Executors.newSingleThreadScheduledExecutor();
+        flusher.scheduleWithFixedDelay(accumulator::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        long writeBehindLikes;
+        try {
+            writeBehindLikes = runLoad(threads, () -> accumulator.add(postId));
+        } finally {
+            flusher.shutdown();
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        accumulator.destroy();
+        assertEquals(writeBehindLikes, likesCount());
+        report("likes", "write-behind", threads, writeBehindLikes * 1000.0 / DURATION_MILLIS, "likes/s");
+    }
+
+    private long runLoad(int threads, Runnable like) throws Exception {
+        var likes = new LongAdder();
+        var deadline = System.currentTimeMillis() + DURATION_MILLIS;
+        var executor = Executors.newFixedThreadPool(threads);
+        var futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                while (System.currentTimeMillis() < deadline) {
+                    like.run();
+                    likes.increment();
+                }
+            }));
+        }
+        for (var future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        return likes.sum();
+    }
+
+    private long likesCount() {
+        return jdbcTemplate.queryForObject("select likes_count from posts where post_id = ?;", Long.class, postId);
+    }
+
+}
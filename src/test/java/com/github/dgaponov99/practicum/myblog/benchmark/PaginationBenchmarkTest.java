@@ -0,0 +1,63 @@
+package com.github.dgaponov99.practicum.myblog.benchmark;
+
+import com.github.dgaponov99.practicum.myblog.config.RepositoryITConfig;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Tag("benchmark")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringJUnitConfig(classes = {RepositoryITConfig.class})
+public class PaginationBenchmarkTest extends PostgresBenchmark {
+
+    private static final int PAGE_SIZE = 10;
+    private static final int POST_COUNT = 10_000 * PAGE_SIZE + PAGE_SIZE;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    PostRepository postRepository;
+
+    @BeforeAll
+    void fillDb() {
+        jdbcTemplate.update("truncate table posts, post_tag, comments restart identity cascade;");
+        jdbcTemplate.update("""
+                insert into posts (title, text)
+                select 'Заголовок ' || i, 'Тело ' || i from generate_series(1, ?) i;
+                """, POST_COUNT);
+        jdbcTemplate.update("insert into post_tag (post_id, tag) select post_id, 'tag' || (post_id % 5) from posts;");
+        jdbcTemplate.execute("analyze posts;");
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "1",
+            "100",
+            "10000"
+    })
+    void offsetVsKeyset(int pageNumber) {
+        var offset = (pageNumber - 1) * PAGE_SIZE;
+        Long afterPostId = pageNumber == 1 ? null : (long) POST_COUNT - offset + 1;
+
+        assertEquals(
+                postRepository.findAll(null, Collections.emptySet(), PAGE_SIZE, offset).stream().map(Post::getId).toList(),
+                postRepository.findAllAfter(null, Collections.emptySet(), PAGE_SIZE, afterPostId).stream().map(Post::getId).toList());
+
+        report("pagination", "offset", pageNumber,
+                measureMillis(() -> postRepository.findAll(null, Collections.emptySet(), PAGE_SIZE, offset)));
+        report("pagination", "keyset", pageNumber,
+                measureMillis(() -> postRepository.findAllAfter(null, Collections.emptySet(), PAGE_SIZE, afterPostId)));
+    }
+
+}
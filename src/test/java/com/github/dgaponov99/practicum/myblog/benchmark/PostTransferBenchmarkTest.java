@@ -0,0 +1,122 @@
+package com.github.dgaponov99.practicum.myblog.benchmark;
+
+import com.github.dgaponov99.practicum.myblog.config.RepositoryITConfig;
+import com.github.dgaponov99.practicum.myblog.config.ServiceITConfig;
+import com.github.dgaponov99.practicum.myblog.service.PostTransferService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@Tag("benchmark")
+@SpringJUnitConfig(classes = {RepositoryITConfig.class, ServiceITConfig.class})
+public class PostTransferBenchmarkTest extends PostgresBenchmark {
+
+    private static final int COMMENTS_PER_POST = 3;
+    private static final long HEAP_SAMPLE_BYTES = 1024 * 1024;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    PostTransferService postTransferService;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void cleanDb() {
+        jdbcTemplate.update("truncate table posts, post_tag, comments restart identity cascade;");
+    }
+
+    // Пиковый heap выгрузки не должен расти вместе с числом постов
+    @ParameterizedTest
+    @CsvSource({
+            "100000",
+            "1000000"
+    })
+    void exportAndImport(int postCount) throws IOException {
+        fillDb(postCount);
+        var exportPath = tempDir.resolve("posts.ndjson");
+
+        System.gc();
+        var heapBefore = usedHeap();
+        var peakHeap = new long[]{heapBefore};
+        var startedAt = System.nanoTime();
+        try (var outputStream = new HeapSamplingOutputStream(new BufferedOutputStream(Files.newOutputStream(exportPath)), peakHeap)) {
+            postTransferService.exportPosts(outputStream);
+        }
+        report("post-transfer", "export", postCount, postCount / seconds(startedAt), "posts/s");
+        report("post-transfer", "export-peak-heap", postCount, (peakHeap[0] - heapBefore) / 1024.0 / 1024.0, "MB");
+
+        jdbcTemplate.update("truncate table posts, post_tag, comments restart identity cascade;");
+        startedAt = System.nanoTime();
+        try (var inputStream = Files.newInputStream(exportPath)) {
+            var result = postTransferService.importPosts(inputStream, 5000);
+            assertNull(result.getError());
+            assertEquals(postCount, result.getImportedPosts());
+        }
+        report("post-transfer", "import", postCount, postCount / seconds(startedAt), "posts/s");
+        assertEquals((long) postCount * COMMENTS_PER_POST, jdbcTemplate.queryForObject("select count(*) from comments;", Long.class));
+    }
+
+    private void fillDb(int postCount) {
+        jdbcTemplate.update("""
+                insert into posts (title, text, comments_count)
+                select 'Заголовок ' || i, repeat('Тело поста ', 20) || i, ?
+                from generate_series(1, ?) i;
+                """, COMMENTS_PER_POST, postCount);
+        jdbcTemplate.update("insert into post_tag (post_id, tag) select post_id, 'tag' || (post_id % 10) from posts;");
+        jdbcTemplate.update("""
+                insert into comments (post_id, text)
+                select p.post_id, 'Комментарий ' || c
+                from posts p, generate_series(1, ?) c;
+                """, COMMENTS_PER_POST);
+        jdbcTemplate.execute("analyze posts, post_tag, comments;");
+    }
+
+    private double seconds(long startedAt) {
+        return (System.nanoTime() - startedAt) / 1_000_000_000.0;
+    }
+
+    private static long usedHeap() {
+        var runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static class HeapSamplingOutputStream extends FilterOutputStream {
+
+        private final long[] peakHeap;
+        private long written;
+
+        private HeapSamplingOutputStream(OutputStream out, long[] peakHeap) {
+            super(out);
+            this.peakHeap = peakHeap;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            var before = written;
+            written += len;
+            if (before / HEAP_SAMPLE_BYTES != written / HEAP_SAMPLE_BYTES) {
+                peakHeap[0] = Math.max(peakHeap[0], usedHeap());
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.github.dgaponov99.practicum.myblog.benchmark;
+
+import com.github.dgaponov99.practicum.myblog.PostgresRepositoryTest;
+import org.junit.jupiter.api.Tag;
+
+@Tag("benchmark")
+public abstract class PostgresBenchmark extends PostgresRepositoryTest {
+
+    protected static final int WARMUP_ITERATIONS = BenchmarkSupport.WARMUP_ITERATIONS;
+    protected static final int MEASURE_ITERATIONS = BenchmarkSupport.MEASURE_ITERATIONS;
+
+    protected double measureMillis(Runnable action) {
+        return BenchmarkSupport.measureMillis(action);
+    }
+
+    protected void report(String benchmark, String variant, Object parameter, double medianMillis) {
+        report(benchmark, variant, parameter, medianMillis, "ms");
+    }
+
+    protected void report(String benchmark, String variant, Object parameter, double value, String unit) {
+        BenchmarkSupport.report(benchmark, variant, parameter, value, unit);
+    }
+
+}
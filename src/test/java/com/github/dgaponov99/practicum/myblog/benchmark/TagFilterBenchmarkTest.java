@@ -0,0 +1,94 @@
+package com.github.dgaponov99.practicum.myblog.benchmark;
+
+import com.github.dgaponov99.practicum.myblog.config.RepositoryITConfig;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Tag("benchmark")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringJUnitConfig(classes = {RepositoryITConfig.class})
+public class TagFilterBenchmarkTest extends PostgresBenchmark {
+
+    private static final int PAGE_SIZE = 10;
+    private static final int POST_COUNT = 200_000;
+
+    // Прежний вариант фильтра для сравнения
+    private static final String JOIN_GROUP_BY_SQL = """
+            select p.post_id
+            from posts p
+                     left join post_tag pt on pt.post_id = p.post_id
+            where not p.deleted
+              and pt.tag in (%s)
+            group by p.post_id, p.title, p.text, p.likes_count, p.comments_count, p.image_uuid, p.deleted
+            having count(distinct pt.tag) = ?
+            order by post_id desc
+            offset 0 rows fetch next ? rows only;
+            """;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    PostRepository postRepository;
+
+    @BeforeAll
+    void fillDb() {
+        jdbcTemplate.update("truncate table posts, post_tag, comments restart identity cascade;");
+        jdbcTemplate.update("""
+                insert into posts (title, text)
+                select 'Заголовок ' || i, repeat('Тело ' || i || ' ', 100) from generate_series(1, ?) i;
+                """, POST_COUNT);
+        jdbcTemplate.update("""
+                insert into post_tag (post_id, tag)
+                select p.post_id, g.prefix || (p.post_id % g.modulo)
+                from posts p
+                         cross join (values ('a', 2), ('b', 3), ('c', 5), ('d', 7), ('e', 11)) g(prefix, modulo);
+                """);
+        jdbcTemplate.execute("analyze posts;");
+        jdbcTemplate.execute("analyze post_tag;");
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "a0",
+            "a0 b0 c0",
+            "a0 b0 c0 d0 e0"
+    })
+    void tagIntersection(String tagList) {
+        var tags = Set.of(tagList.split(" "));
+        var tagCount = tags.size();
+
+        assertEquals(joinGroupBy(tags),
+                postRepository.findAll(null, tags, PAGE_SIZE, 0).stream().map(Post::getId).toList());
+
+        report("tag-filter", "join-group-by", tagCount,
+                measureMillis(() -> joinGroupBy(tags)));
+        report("tag-filter", "post-id-in", tagCount,
+                measureMillis(() -> postRepository.findAll(null, tags, PAGE_SIZE, 0)));
+        report("tag-filter-count", "post-id-in", tagCount,
+                measureMillis(() -> postRepository.count(null, tags)));
+    }
+
+    private List<Long> joinGroupBy(Set<String> tags) {
+        var params = new ArrayList<Object>(tags);
+        params.add(tags.size());
+        params.add(PAGE_SIZE);
+        var sql = JOIN_GROUP_BY_SQL.formatted(tags.stream().map(tag -> "?").collect(Collectors.joining(", ")));
+        return jdbcTemplate.queryForList(sql, Long.class, params.toArray());
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.github.dgaponov99.practicum.myblog.benchmark;
+
+import com.github.dgaponov99.practicum.myblog.config.RepositoryITConfig;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("benchmark")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringJUnitConfig(classes = {RepositoryITConfig.class})
+public class TitleSearchBenchmarkTest extends PostgresBenchmark {
+
+    private static final int PAGE_SIZE = 10;
+    private static final int POST_COUNT = 1_000_000;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    PostRepository postRepository;
+
+    @BeforeAll
+    void fillDb() {
+        jdbcTemplate.update("truncate table posts, post_tag, comments restart identity cascade;");
+        jdbcTemplate.update("""
+                insert into posts (title, text)
+                select 'Заголовок ' || md5(i::text),
+                       'Пост про ' || (array ['пирог', 'машину', 'море', 'город', 'кино'])[i % 5 + 1] || ' номер ' || i
+                from generate_series(1, ?) i;
+                """, POST_COUNT);
+        jdbcTemplate.execute("analyze posts;");
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "c4ca4",
+            "заголовок a1b",
+            "ff"
+    })
+    void substringWithAndWithoutTrigramIndex(String title) {
+        var expectedIds = postRepository.findAll(title, Collections.emptySet(), PAGE_SIZE, 0).stream().map(Post::getId).toList();
+        report("title-search", "trigram-index", title,
+                measureMillis(() -> postRepository.findAllWithTotal(title, Collections.emptySet(), PAGE_SIZE, 0)));
+
+        jdbcTemplate.execute("drop index posts_title_trgm_idx;");
+        try {
+            assertEquals(expectedIds, postRepository.findAll(title, Collections.emptySet(), PAGE_SIZE, 0).stream().map(Post::getId).toList());
+            report("title-search", "seq-scan", title,
+                    measureMillis(() -> postRepository.findAllWithTotal(title, Collections.emptySet(), PAGE_SIZE, 0)));
+        } finally {
+            jdbcTemplate.execute("create index posts_title_trgm_idx on posts using gin (lower(title) gin_trgm_ops);");
+        }
+    }
+
+    @Test
+    void fullText() {
+        assertTrue(postRepository.findAllByFullText("пироги", Collections.emptySet(), PAGE_SIZE, 0).getTotalCount() > 0);
+        report("full-text-search", "ranked", "пироги",
+                measureMillis(() -> postRepository.findAllByFullText("пироги", Collections.emptySet(), PAGE_SIZE, 0)));
+    }
+
+}
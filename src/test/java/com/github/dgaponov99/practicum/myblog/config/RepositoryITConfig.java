@@ -1,12 +1,13 @@
 package com.github.dgaponov99.practicum.myblog.config;
 
 import com.github.dgaponov99.practicum.myblog.configuration.DataSourceConfiguration;
+import com.github.dgaponov99.practicum.myblog.configuration.MetricsConfiguration;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 
 @Configuration
 @ComponentScan("com.github.dgaponov99.practicum.myblog.persistence")
-@Import(DataSourceConfiguration.class)
+@Import({DataSourceConfiguration.class, MetricsConfiguration.class})
 public class RepositoryITConfig {
 }
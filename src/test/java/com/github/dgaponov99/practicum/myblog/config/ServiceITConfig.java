@@ -1,9 +1,15 @@
 package com.github.dgaponov99.practicum.myblog.config;
 
+import com.github.dgaponov99.practicum.myblog.configuration.JacksonConfiguration;
+import com.github.dgaponov99.practicum.myblog.configuration.ValidationConfiguration;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 @Configuration
 @ComponentScan({"com.github.dgaponov99.practicum.myblog.service", "com.github.dgaponov99.practicum.myblog.mapper"})
+@Import({JacksonConfiguration.class, ValidationConfiguration.class})
+@EnableTransactionManagement
 public class ServiceITConfig {
 }
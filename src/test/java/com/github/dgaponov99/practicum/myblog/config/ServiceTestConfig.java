@@ -1,16 +1,26 @@
 package com.github.dgaponov99.practicum.myblog.config;
 
+import com.github.dgaponov99.practicum.myblog.configuration.JacksonConfiguration;
+import com.github.dgaponov99.practicum.myblog.configuration.MetricsConfiguration;
+import com.github.dgaponov99.practicum.myblog.configuration.ValidationConfiguration;
 import com.github.dgaponov99.practicum.myblog.persistence.repository.CommentRepository;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.ImageRepository;
 import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import com.github.dgaponov99.practicum.myblog.service.ImageProcessingPipeline;
+import com.github.dgaponov99.practicum.myblog.service.PostCountCache;
 import com.github.dgaponov99.practicum.myblog.service.PostImageService;
+import com.github.dgaponov99.practicum.myblog.service.PostLikesAccumulator;
 import org.mockito.Mockito;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.context.annotation.Primary;
+import org.springframework.transaction.PlatformTransactionManager;
 
 @Configuration
 @ComponentScan({"com.github.dgaponov99.practicum.myblog.service", "com.github.dgaponov99.practicum.myblog.mapper"})
+@Import({MetricsConfiguration.class, JacksonConfiguration.class, ValidationConfiguration.class})
 public class ServiceTestConfig {
 
     @Bean
@@ -25,11 +35,39 @@ public class ServiceTestConfig {
         return Mockito.mock(CommentRepository.class);
     }
 
+    @Bean
+    @Primary
+    public ImageRepository imageRepository() {
+        return Mockito.mock(ImageRepository.class);
+    }
+
     @Bean
     @Primary
     public PostImageService postImageService() {
         return Mockito.mock(PostImageService.class);
     }
 
+    @Bean
+    @Primary
+    public ImageProcessingPipeline imageProcessingPipeline() {
+        return Mockito.mock(ImageProcessingPipeline.class);
+    }
+
+    @Bean
+    @Primary
+    public PostCountCache postCountCache() {
+        return Mockito.mock(PostCountCache.class);
+    }
+
+    @Bean
+    @Primary
+    public PostLikesAccumulator postLikesAccumulator() {
+        return Mockito.mock(PostLikesAccumulator.class);
+    }
+
+    @Bean
+    public PlatformTransactionManager transactionManager() {
+        return Mockito.mock(PlatformTransactionManager.class);
+    }
 
 }
@@ -1,15 +1,18 @@
 package com.github.dgaponov99.practicum.myblog.config;
 
+import com.github.dgaponov99.practicum.myblog.configuration.JacksonConfiguration;
 import com.github.dgaponov99.practicum.myblog.configuration.ValidationConfiguration;
 import com.github.dgaponov99.practicum.myblog.configuration.WebConfiguration;
 import com.github.dgaponov99.practicum.myblog.service.CommentService;
+import com.github.dgaponov99.practicum.myblog.service.MetricsService;
 import com.github.dgaponov99.practicum.myblog.service.PostService;
+import com.github.dgaponov99.practicum.myblog.service.PostTransferService;
 import org.mockito.Mockito;
 import org.springframework.context.annotation.*;
 
 @Configuration
 @ComponentScan("com.github.dgaponov99.practicum.myblog.web")
-@Import({ValidationConfiguration.class, WebConfiguration.class})
+@Import({ValidationConfiguration.class, WebConfiguration.class, JacksonConfiguration.class})
 public class WebTestConfig {
 
     @Bean
@@ -24,4 +27,16 @@ public class WebTestConfig {
         return Mockito.mock(CommentService.class);
     }
 
+    @Bean
+    @Primary
+    public PostTransferService postTransferService() {
+        return Mockito.mock(PostTransferService.class);
+    }
+
+    @Bean
+    @Primary
+    public MetricsService metricsService() {
+        return Mockito.mock(MetricsService.class);
+    }
+
 }
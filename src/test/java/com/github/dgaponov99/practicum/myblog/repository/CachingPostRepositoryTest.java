@@ -0,0 +1,82 @@
+package com.github.dgaponov99.practicum.myblog.repository;
+
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
+import com.github.dgaponov99.practicum.myblog.persistence.event.PostChangedEvent;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.impl.CachingPostRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class CachingPostRepositoryTest {
+
+    private PostRepository delegate;
+    private SimpleMeterRegistry meterRegistry;
+    private CachingPostRepository postRepository;
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(PostRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+        postRepository = new CachingPostRepository(delegate, true, 100, 60, meterRegistry);
+        when(delegate.findById(anyLong())).thenAnswer(invocation -> Optional.of(
+                new Post(invocation.getArgument(0), "Заголовок", "Текст", 1, 0, null, Set.of("tag1"), false)));
+    }
+
+    @Test
+    void findById_shouldLoadOnce() {
+        var first = postRepository.findById(1L).orElseThrow();
+        var second = postRepository.findById(1L).orElseThrow();
+
+        assertEquals(first.getTitle(), second.getTitle());
+        assertNotSame(first, second);
+        verify(delegate, times(1)).findById(1L);
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "post").tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    void findById_shouldNotShareMutableState() {
+        postRepository.findById(1L).orElseThrow().getTags().add("tag2");
+
+        assertEquals(Set.of("tag1"), postRepository.findById(1L).orElseThrow().getTags());
+    }
+
+    @Test
+    void writes_shouldInvalidate() {
+        postRepository.findById(1L);
+        postRepository.update(1L, "Заголовок 2", "Текст 2", Set.of());
+        postRepository.findById(1L);
+        postRepository.updateImageUuid(1L, UUID.randomUUID());
+        postRepository.findById(1L);
+        when(delegate.incrementLikes(anyLong())).thenReturn(Optional.of(2));
+        postRepository.incrementLikes(1L);
+        postRepository.findById(1L);
+        postRepository.addLikes(Map.of(1L, 3));
+        postRepository.findById(1L);
+        postRepository.onPostChanged(new PostChangedEvent(1L));
+        postRepository.findById(1L);
+        postRepository.deleteById(1L);
+        postRepository.findById(1L);
+
+        verify(delegate, times(7)).findById(1L);
+    }
+
+    @Test
+    void findById_shouldBypassCacheWhenDisabled() {
+        var uncachedRepository = new CachingPostRepository(delegate, false, 100, 60, meterRegistry);
+
+        uncachedRepository.findById(1L);
+        uncachedRepository.findById(1L);
+
+        verify(delegate, times(2)).findById(1L);
+    }
+
+}
@@ -4,6 +4,7 @@ import com.github.dgaponov99.practicum.myblog.PostgresRepositoryTest;
 import com.github.dgaponov99.practicum.myblog.config.RepositoryITConfig;
 import com.github.dgaponov99.practicum.myblog.persistence.entity.Comment;
 import com.github.dgaponov99.practicum.myblog.persistence.repository.CommentRepository;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,8 +13,12 @@ import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
 
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -25,6 +30,8 @@ public class CommentRepositoryTest extends PostgresRepositoryTest {
     JdbcTemplate jdbcTemplate;
     @Autowired
     CommentRepository commentRepository;
+    @Autowired
+    PostRepository postRepository;
 
     @BeforeEach
     void cleanDb() {
@@ -104,11 +111,57 @@ public class CommentRepositoryTest extends PostgresRepositoryTest {
         assertEquals(0, commentRepository.findByPostId(100500L).size());
     }
 
+    @Test
+    void findByPostIdAfter_shouldReturnPagesInOrder() {
+        var postId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
+        var first = insertComment(postId, "Комментарий 1", false);
+        insertComment(postId, "Комментарий 2", true);
+        var third = insertComment(postId, "Комментарий 3", false);
+        var fourth = insertComment(postId, "Комментарий 4", false);
+
+        assertEquals(List.of(first, third), commentRepository.findByPostIdAfter(postId, null, 2).stream().map(Comment::getId).toList());
+        assertEquals(List.of(fourth), commentRepository.findByPostIdAfter(postId, third, 2).stream().map(Comment::getId).toList());
+        assertTrue(commentRepository.findByPostIdAfter(postId, fourth, 2).isEmpty());
+    }
+
+    @Test
+    void streamByPostId_shouldPassAllNotDeletedComments() {
+        var otherPostId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
+        insertComment(otherPostId, "Комментарий 1", false);
+        var postId = insertPost("Заголовок 2", "Тело 2", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
+        var expectedCommentIds = new ArrayList<Long>();
+        for (int i = 1; i <= 5; i++) {
+            expectedCommentIds.add(insertComment(postId, "Комментарий " + i, false));
+        }
+        insertComment(postId, "Удалённый", true);
+
+        var commentIds = new ArrayList<Long>();
+        commentRepository.streamByPostId(postId, comment -> commentIds.add(comment.getId()));
+
+        assertEquals(expectedCommentIds, commentIds);
+    }
+
+    @Test
+    void commentWrites_shouldChangePostVersion() {
+        var postId = insertPost("Заголовок 1", "Тело 1", 4, null, false);
+        var versions = new ArrayList<Long>();
+        versions.add(getPostVersion(postId));
+
+        var comment = commentRepository.create(postId, "Комментарий 1").orElseThrow();
+        versions.add(getPostVersion(postId));
+        commentRepository.update(postId, comment.getId(), "Комментарий 2");
+        versions.add(getPostVersion(postId));
+        commentRepository.deleteById(comment.getId());
+        versions.add(getPostVersion(postId));
+
+        assertEquals(versions.size(), new HashSet<>(versions).size());
+    }
+
     @Test
     void create_shouldPersistComment() {
         var postId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
 
-        var comment = commentRepository.create(postId, "Комментарий");
+        var comment = commentRepository.create(postId, "Комментарий").orElse(null);
         assertNotNull(comment);
         assertAll(
                 () -> assertNotNull(comment.getId()),
@@ -121,19 +174,162 @@ public class CommentRepositoryTest extends PostgresRepositoryTest {
         assertCommentEquals(comment, dbComment);
     }
 
+    @Test
+    void create_shouldIncrementPostCommentsCount() {
+        var postId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
+
+        commentRepository.create(postId, "Комментарий 1");
+        commentRepository.create(postId, "Комментарий 2");
+
+        assertEquals(2, getPostCommentsCount(postId));
+    }
+
+    @Test
+    void create_shouldSkipMissingAndDeletedPost() {
+        var deletedPostId = insertPost("Заголовок 1", "Тело 1", 4, null, true);
+
+        assertTrue(commentRepository.create(deletedPostId, "Комментарий").isEmpty());
+        assertTrue(commentRepository.create(100500L, "Комментарий").isEmpty());
+        assertEquals(0, jdbcTemplate.queryForObject("select count(*) from comments;", Integer.class));
+        assertEquals(0, getPostCommentsCount(deletedPostId));
+    }
+
+    @Test
+    void copyAll_shouldInsertCommentsAndCount() {
+        var postId = insertPost("Заголовок 1", "Тело 1", 4, null, false);
+        var texts = List.of("Простой", "С \"кавычками\", запятой", "Много\nстрок", "Обратный \\ слэш");
+
+        assertEquals(texts.size(), commentRepository.copyAll(postId, texts));
+
+        assertEquals(texts, commentRepository.findByPostId(postId).stream().map(Comment::getText).toList());
+        assertEquals(texts.size(), getPostCommentsCount(postId));
+    }
+
+    @Test
+    void copyAll_shouldSkipDeletedPost() {
+        var postId = insertPost("Заголовок 1", "Тело 1", 4, null, true);
+
+        assertEquals(0, commentRepository.copyAll(postId, List.of("Комментарий")));
+
+        assertEquals(0, jdbcTemplate.queryForObject("select count(*) from comments;", Integer.class));
+        assertEquals(0, getPostCommentsCount(postId));
+    }
+
+    @Test
+    void copyAll_shouldInsertCommentsOfSeveralPosts() {
+        var firstPostId = insertPost("Заголовок 1", "Тело 1", 0, null, false);
+        var secondPostId = insertPost("Заголовок 2", "Тело 2", 0, null, false);
+
+        assertEquals(3, commentRepository.copyAll(List.of(
+                new Comment(null, firstPostId, "Первый, \"пост\"", false),
+                new Comment(null, secondPostId, "Второй пост", false),
+                new Comment(null, firstPostId, "Снова первый", false)
+        )));
+
+        assertEquals(List.of("Первый, \"пост\"", "Снова первый"), commentRepository.findByPostId(firstPostId).stream().map(Comment::getText).toList());
+        assertEquals(List.of("Второй пост"), commentRepository.findByPostId(secondPostId).stream().map(Comment::getText).toList());
+        assertEquals(0, commentRepository.copyAll(List.of()));
+    }
+
+    @Test
+    void createAndDelete_concurrently_shouldKeepPostCommentsCountExact() throws Exception {
+        var postId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
+        var threadCount = 16;
+        var commentsPerThread = 50;
+
+        var executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            var futures = new ArrayList<Future<?>>(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < commentsPerThread; j++) {
+                        var comment = commentRepository.create(postId, "Комментарий " + j).orElseThrow();
+                        if (j % 2 == 0) {
+                            commentRepository.deleteById(comment.getId());
+                            commentRepository.deleteById(comment.getId());
+                        }
+                    }
+                }));
+            }
+            for (var future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(threadCount * commentsPerThread / 2, getPostCommentsCount(postId));
+        assertEquals(commentRepository.countByPostId(postId), getPostCommentsCount(postId));
+    }
+
+    @Test
+    void create_concurrentlyWithReconcile_shouldKeepPostCommentsCountExact() throws Exception {
+        var postId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
+        var threadCount = 8;
+        var commentsPerThread = 50;
+
+        var executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            var futures = new ArrayList<Future<?>>(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < commentsPerThread; j++) {
+                        commentRepository.create(postId, "Комментарий " + j).orElseThrow();
+                    }
+                }));
+            }
+            while (!futures.stream().allMatch(Future::isDone)) {
+                postRepository.reconcileCommentsCount();
+            }
+            for (var future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(threadCount * commentsPerThread, getPostCommentsCount(postId));
+    }
+
     @Test
     void update_shouldUpdatePost() {
         var postId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
         var commentId = insertComment(postId, "Комментарий", false);
 
-        commentRepository.update(postId, "Комментарий 2");
+        var returnedComment = commentRepository.update(postId, commentId, "Комментарий 2").orElse(null);
         var updatedComment = commentRepository.findById(commentId).orElse(null);
+        assertNotNull(returnedComment);
         assertNotNull(updatedComment);
 
         assertAll(
                 () -> assertEquals("Комментарий 2", updatedComment.getText()),
                 () -> assertFalse(updatedComment.isDeleted())
         );
+        assertCommentEquals(updatedComment, returnedComment);
+    }
+
+    @Test
+    void update_shouldUpdateOnlyTargetComment() {
+        var postId = insertPost("Заголовок 1", "Тело 1", 4, null, false);
+        var otherCommentId = insertComment(postId, "Комментарий 1", false);
+        var commentId = insertComment(postId, "Комментарий 2", false);
+
+        commentRepository.update(postId, commentId, "Изменённый");
+
+        assertEquals("Комментарий 1", commentRepository.findById(otherCommentId).orElseThrow().getText());
+        assertEquals("Изменённый", commentRepository.findById(commentId).orElseThrow().getText());
+    }
+
+    @Test
+    void update_shouldSkipOtherPostAndDeletedComment() {
+        var postId = insertPost("Заголовок 1", "Тело 1", 4, null, false);
+        var otherPostId = insertPost("Заголовок 2", "Тело 2", 4, null, false);
+        var commentId = insertComment(postId, "Комментарий", false);
+        var deletedCommentId = insertComment(postId, "Удалённый", true);
+
+        assertTrue(commentRepository.update(otherPostId, commentId, "Изменённый").isEmpty());
+        assertTrue(commentRepository.update(postId, deletedCommentId, "Изменённый").isEmpty());
+        assertEquals("Комментарий", commentRepository.findById(commentId).orElseThrow().getText());
     }
 
     @Test
@@ -142,7 +338,7 @@ public class CommentRepositoryTest extends PostgresRepositoryTest {
         var commentId = insertComment(postId, "Комментарий", false);
         var beforeComment = commentRepository.findById(commentId).orElseThrow();
 
-        commentRepository.update(100500L, "Комментарий 2");
+        assertTrue(commentRepository.update(postId, 100500L, "Комментарий 2").isEmpty());
         assertTrue(commentRepository.findById(100500L).isEmpty());
 
         var afterComment = commentRepository.findById(commentId).orElseThrow();
@@ -163,6 +359,18 @@ public class CommentRepositoryTest extends PostgresRepositoryTest {
         assertTrue(deletedComment.isDeleted());
     }
 
+    @Test
+    void deleteById_shouldDecrementPostCommentsCountOnce() {
+        var postId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
+        var comment = commentRepository.create(postId, "Комментарий 1").orElseThrow();
+        commentRepository.create(postId, "Комментарий 2");
+
+        commentRepository.deleteById(comment.getId());
+        commentRepository.deleteById(comment.getId());
+
+        assertEquals(1, getPostCommentsCount(postId));
+    }
+
     @Test
     void deleteById_shouldDoNothing() {
         var postId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
@@ -185,6 +393,14 @@ public class CommentRepositoryTest extends PostgresRepositoryTest {
         );
     }
 
+    private int getPostCommentsCount(long postId) {
+        return jdbcTemplate.queryForObject("select comments_count from posts where post_id = ?;", Integer.class, postId);
+    }
+
+    private long getPostVersion(long postId) {
+        return jdbcTemplate.queryForObject("select version from posts where post_id = ?;", Long.class, postId);
+    }
+
     private long insertPost(String title, String text, int likesCount, UUID imageUuid, boolean deleted) {
         var postIdHolder = new GeneratedKeyHolder();
         jdbcTemplate.update(connection -> {
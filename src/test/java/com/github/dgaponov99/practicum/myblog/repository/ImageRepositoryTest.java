@@ -0,0 +1,165 @@
+package com.github.dgaponov99.practicum.myblog.repository;
+
+import com.github.dgaponov99.practicum.myblog.PostgresRepositoryTest;
+import com.github.dgaponov99.practicum.myblog.config.RepositoryITConfig;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Image;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.ImageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringJUnitConfig(classes = {RepositoryITConfig.class})
+public class ImageRepositoryTest extends PostgresRepositoryTest {
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    ImageRepository imageRepository;
+
+    @BeforeEach
+    void cleanDb() {
+        jdbcTemplate.update("truncate table images, image_blobs;");
+        jdbcTemplate.update("truncate table posts, post_tag restart identity cascade;");
+    }
+
+    @Test
+    void create_shouldStoreMetadata() {
+        var imageUuid = UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089");
+
+        imageRepository.create(new Image(imageUuid, "image/png", 5_242_880, "ab".repeat(32)));
+
+        var image = imageRepository.findByUuid(imageUuid).orElse(null);
+        assertNotNull(image);
+        assertAll(
+                () -> assertEquals(imageUuid, image.getUuid()),
+                () -> assertEquals("image/png", image.getContentType()),
+                () -> assertEquals(5_242_880, image.getSize()),
+                () -> assertEquals("ab".repeat(32), image.getSha256())
+        );
+    }
+
+    @Test
+    void findByUuid_shouldReturnEmpty() {
+        assertTrue(imageRepository.findByUuid(UUID.randomUUID()).isEmpty());
+    }
+
+    @Test
+    void deleteByUuid_shouldRemoveMetadata() {
+        var imageUuid = UUID.randomUUID();
+        imageRepository.create(new Image(imageUuid, "image/jpeg", 10, "ab".repeat(32)));
+
+        var deleted = imageRepository.deleteByUuid(imageUuid).orElse(null);
+
+        assertNotNull(deleted);
+        assertEquals("ab".repeat(32), deleted.getSha256());
+        assertTrue(imageRepository.findByUuid(imageUuid).isEmpty());
+        assertTrue(imageRepository.deleteByUuid(imageUuid).isEmpty());
+    }
+
+    @Test
+    void releaseBlob_shouldReportLastReference() {
+        var sha256 = "cd".repeat(32);
+        imageRepository.create(new Image(UUID.randomUUID(), "image/png", 10, sha256));
+        imageRepository.create(new Image(UUID.randomUUID(), "image/png", 10, sha256));
+        assertEquals(2, refCount(sha256));
+
+        assertFalse(imageRepository.releaseBlob(sha256));
+        assertEquals(1, refCount(sha256));
+        assertTrue(imageRepository.releaseBlob(sha256));
+        assertEquals(0, refCount(sha256));
+        assertFalse(imageRepository.releaseBlob(sha256));
+        assertEquals(0, refCount(sha256));
+    }
+
+    @Test
+    void deleteUnusedBlob_shouldKeepReferencedBlob() {
+        var usedSha256 = "cd".repeat(32);
+        var releasedSha256 = "ef".repeat(32);
+        imageRepository.create(new Image(UUID.randomUUID(), "image/png", 10, usedSha256));
+        imageRepository.create(new Image(UUID.randomUUID(), "image/png", 10, releasedSha256));
+        imageRepository.releaseBlob(releasedSha256);
+
+        assertFalse(imageRepository.deleteUnusedBlob(usedSha256));
+        assertTrue(imageRepository.deleteUnusedBlob(releasedSha256));
+        assertTrue(imageRepository.deleteUnusedBlob("ab".repeat(32)));
+        assertEquals(1, refCount(usedSha256));
+        assertEquals(Set.of(usedSha256), new HashSet<>(jdbcTemplate.queryForList("select sha256 from image_blobs;", String.class)));
+    }
+
+    @Test
+    void findUnreferencedUuids_shouldSkipReferencedAndRecent() {
+        var referencedUuid = UUID.fromString("00000000-0000-0000-0000-000000000001");
+        var deletedPostUuid = UUID.fromString("00000000-0000-0000-0000-000000000002");
+        var orphanUuid = UUID.fromString("00000000-0000-0000-0000-000000000003");
+        var recentUuid = UUID.fromString("00000000-0000-0000-0000-000000000004");
+        for (var imageUuid : List.of(referencedUuid, deletedPostUuid, orphanUuid, recentUuid)) {
+            imageRepository.create(new Image(imageUuid, "image/png", 10, "ab".repeat(32)));
+        }
+        jdbcTemplate.update("update images set created_at = now() - interval '2 days' where image_uuid <> ?;", recentUuid.toString());
+        insertPost(referencedUuid, false);
+        insertPost(deletedPostUuid, true);
+
+        var createdBefore = Instant.now().minus(Duration.ofDays(1));
+        assertEquals(List.of(deletedPostUuid, orphanUuid), imageRepository.findUnreferencedUuids(createdBefore, null, 10));
+        assertEquals(List.of(orphanUuid), imageRepository.findUnreferencedUuids(createdBefore, deletedPostUuid, 10));
+        assertEquals(List.of(deletedPostUuid), imageRepository.findUnreferencedUuids(createdBefore, null, 1));
+    }
+
+    @Test
+    void deleteUnreferencedByUuid_shouldKeepReferenced() {
+        var referencedUuid = UUID.randomUUID();
+        var orphanUuid = UUID.randomUUID();
+        imageRepository.create(new Image(referencedUuid, "image/png", 10, "ab".repeat(32)));
+        imageRepository.create(new Image(orphanUuid, "image/png", 10, "ab".repeat(32)));
+        insertPost(referencedUuid, false);
+
+        assertTrue(imageRepository.deleteUnreferencedByUuid(referencedUuid).isEmpty());
+        assertTrue(imageRepository.deleteUnreferencedByUuid(orphanUuid).isPresent());
+        assertTrue(imageRepository.findByUuid(referencedUuid).isPresent());
+        assertTrue(imageRepository.findByUuid(orphanUuid).isEmpty());
+    }
+
+    @Test
+    void findExistingBlobs_shouldReturnKnownHashes() {
+        imageRepository.create(new Image(UUID.randomUUID(), "image/png", 10, "ab".repeat(32)));
+        imageRepository.create(new Image(UUID.randomUUID(), "image/png", 10, "ef".repeat(32)));
+        imageRepository.releaseBlob("ef".repeat(32));
+
+        assertEquals(Set.of("ab".repeat(32)), imageRepository.findExistingBlobs(List.of("ab".repeat(32), "cd".repeat(32), "ef".repeat(32))));
+        assertEquals(Set.of(), imageRepository.findExistingBlobs(List.of()));
+    }
+
+    @Test
+    void findReferencedUuids_shouldCheckPostsAndImages() {
+        var postImageUuid = UUID.randomUUID();
+        var storedImageUuid = UUID.randomUUID();
+        var deletedPostUuid = UUID.randomUUID();
+        insertPost(postImageUuid, false);
+        insertPost(deletedPostUuid, true);
+        imageRepository.create(new Image(storedImageUuid, "image/png", 10, "ab".repeat(32)));
+
+        assertEquals(Set.of(postImageUuid, storedImageUuid),
+                imageRepository.findReferencedUuids(List.of(postImageUuid, storedImageUuid, deletedPostUuid, UUID.randomUUID())));
+    }
+
+    private void insertPost(UUID imageUuid, boolean deleted) {
+        jdbcTemplate.update("insert into posts (title, text, likes_count, image_uuid, deleted) values ('title', 'text', 0, ?, ?);",
+                imageUuid.toString(), deleted);
+    }
+
+    private int refCount(String sha256) {
+        return jdbcTemplate.queryForObject("select ref_count from image_blobs where sha256 = ?;", Integer.class, sha256);
+    }
+
+}
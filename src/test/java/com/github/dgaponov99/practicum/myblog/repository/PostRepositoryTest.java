@@ -4,20 +4,32 @@ import com.github.dgaponov99.practicum.myblog.PostgresRepositoryTest;
 import com.github.dgaponov99.practicum.myblog.config.RepositoryITConfig;
 import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
 import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.impl.PostJdbcRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
 
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -30,6 +42,8 @@ public class PostRepositoryTest extends PostgresRepositoryTest {
     JdbcTemplate jdbcTemplate;
     @Autowired
     PostRepository postRepository;
+    @Autowired
+    DataSource dataSource;
 
     @BeforeEach
     void cleanDb() {
@@ -55,6 +69,18 @@ public class PostRepositoryTest extends PostgresRepositoryTest {
         );
     }
 
+    @Test
+    void findById_shouldReturnCommentsCount() {
+        var postId = insertPost("Заголовок 1", "Тело 1", 4, null, false);
+        insertComment(postId, "Комментарий 1", false);
+        insertComment(postId, "Комментарий 2", true);
+        insertComment(postId, "Комментарий 3", false);
+        postRepository.reconcileCommentsCount();
+
+        var post = postRepository.findById(postId).orElseThrow();
+        assertEquals(2, post.getCommentsCount());
+    }
+
     @Test
     void findById_shouldReturnEmpty() {
         assertTrue(postRepository.findById(100500L).isEmpty());
@@ -84,6 +110,98 @@ public class PostRepositoryTest extends PostgresRepositoryTest {
         assertIterableEquals(postIds.descendingSet().stream().skip(offset).limit(size).toList(), posts.stream().map(Post::getId).toList());
     }
 
+    @ParameterizedTest
+    @CsvSource({
+            "100, 10, 0",
+            "100, 10, 90",
+            "100, 10, 100",
+            "0, 10, 0"
+    })
+    void findAllWithTotal_shouldReturnPageAndTotal(int totalCount, int size, int offset) {
+        var postIds = IntStream.range(0, totalCount)
+                .mapToLong(i -> {
+                    long postId = insertPost("Заголовок %s".formatted(i), "Тело %s".formatted(i), i, null, false);
+                    insertPostTag(postId, "tag1");
+                    return postId;
+                })
+                .boxed()
+                .collect(Collectors.toCollection(TreeSet::new));
+        insertPost("Удалённый", "Тело", 0, null, true);
+
+        var postSlice = postRepository.findAllWithTotal(null, Set.of("tag1"), size, offset);
+
+        assertEquals(totalCount, postSlice.getTotalCount());
+        assertIterableEquals(postIds.descendingSet().stream().skip(offset).limit(size).toList(),
+                postSlice.getPosts().stream().map(Post::getId).toList());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "100, 10",
+            "100, 100",
+            "95, 10"
+    })
+    void findAllAfter_shouldWalkAllPosts(int totalCount, int size) {
+        var postIds = IntStream.range(0, totalCount)
+                .mapToLong(i -> insertPost("Заголовок %s".formatted(i), "Тело %s".formatted(i), i, null, false))
+                .boxed()
+                .collect(Collectors.toCollection(TreeSet::new));
+
+        var walkedPostIds = new ArrayList<Long>(totalCount);
+        Long afterPostId = null;
+        List<Post> posts;
+        do {
+            posts = postRepository.findAllAfter(null, Collections.emptySet(), size, afterPostId);
+            posts.forEach(post -> walkedPostIds.add(post.getId()));
+            afterPostId = posts.isEmpty() ? null : posts.get(posts.size() - 1).getId();
+        } while (posts.size() == size);
+
+        assertIterableEquals(postIds.descendingSet(), walkedPostIds);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "1",
+            "10",
+            "100"
+    })
+    void findAll_shouldLoadTagsWithConstantStatementCount(int pageSize) {
+        IntStream.range(0, pageSize).forEach(i -> {
+            long postId = insertPost("Заголовок %s".formatted(i), "Тело %s".formatted(i), i, null, false);
+            insertPostTag(postId, "tag1");
+            insertPostTag(postId, "tag2");
+        });
+        var statementCount = new AtomicInteger();
+        var countingRepository = new PostJdbcRepository(new JdbcTemplate(countingDataSource(statementCount)));
+
+        var posts = countingRepository.findAll(null, Collections.emptySet(), pageSize, 0);
+
+        assertEquals(pageSize, posts.size());
+        assertTrue(posts.stream().allMatch(post -> Set.of("tag1", "tag2").equals(post.getTags())));
+        assertEquals(2, statementCount.get());
+    }
+
+    @Test
+    void findAll_shouldReturnCommentsCount() {
+        var firstPostId = insertPost("Заголовок 1", "Тело 1", 0, null, false);
+        insertPostTag(firstPostId, "tag1");
+        insertComment(firstPostId, "Комментарий 1", false);
+        insertComment(firstPostId, "Комментарий 2", false);
+        var secondPostId = insertPost("Заголовок 2", "Тело 2", 0, null, false);
+        insertPostTag(secondPostId, "tag1");
+        insertComment(secondPostId, "Комментарий 1", true);
+        postRepository.reconcileCommentsCount();
+
+        var posts = postRepository.findAll(null, Set.of("tag1"), 10, 0);
+        assertEquals(2, posts.size());
+        assertAll(
+                () -> assertEquals(secondPostId, posts.get(0).getId()),
+                () -> assertEquals(0, posts.get(0).getCommentsCount()),
+                () -> assertEquals(firstPostId, posts.get(1).getId()),
+                () -> assertEquals(2, posts.get(1).getCommentsCount())
+        );
+    }
+
     @Test
     void search_searchPosts() {
         var satisfyingPostIds = new TreeSet<Long>();
@@ -114,6 +232,58 @@ public class PostRepositoryTest extends PostgresRepositoryTest {
         assertIterableEquals(satisfyingPostIds.descendingSet().stream().toList(), posts.stream().map(Post::getId).toList());
     }
 
+    @Test
+    void findAllByFullText_shouldReturnRankedPosts() {
+        var bestPostId = insertPost("Рецепт пирога", "Пирог с яблоками: тесто, яблоки, корица", 0, null, false);
+        insertPostTag(bestPostId, "кухня");
+        var otherPostId = insertPost("Заметки", "Вчера испекли пирог", 0, null, false);
+        insertPostTag(otherPostId, "кухня");
+        insertPost("Рецепт пирогов", "Пироги без тегов", 0, null, false);
+        insertPost("Про машины", "Ничего про выпечку", 0, null, false);
+        insertPost("Пирог", "Удалённый пост", 0, null, true);
+
+        var postSlice = postRepository.findAllByFullText("пирог", Set.of("кухня"), 10, 0);
+
+        assertEquals(2, postSlice.getTotalCount());
+        assertIterableEquals(List.of(bestPostId, otherPostId), postSlice.getPosts().stream().map(Post::getId).toList());
+        assertEquals(Set.of("кухня"), postSlice.getPosts().get(0).getTags());
+    }
+
+    @Test
+    void findAllByFullText_shouldCountPastLastPage() {
+        insertPost("Рецепт пирога", "Пирог с яблоками", 0, null, false);
+        insertPost("Заметки", "Вчера испекли пирог", 0, null, false);
+        insertPost("Про машины", "Ничего про выпечку", 0, null, false);
+
+        var postSlice = postRepository.findAllByFullText("пирог", Set.of(), 10, 10);
+
+        assertTrue(postSlice.getPosts().isEmpty());
+        assertEquals(2, postSlice.getTotalCount());
+    }
+
+    @Test
+    void findVersionById_shouldChangeOnEveryWrite() {
+        var postId = insertPost("Заголовок 1", "Тело 1", 0, null, false);
+        var versions = new ArrayList<Long>();
+        versions.add(postRepository.findVersionById(postId).orElseThrow());
+
+        postRepository.update(postId, "Заголовок 2", "Тело 2", Set.of("tag1"));
+        versions.add(postRepository.findVersionById(postId).orElseThrow());
+        postRepository.incrementLikes(postId);
+        versions.add(postRepository.findVersionById(postId).orElseThrow());
+        postRepository.updateImageUuid(postId, UUID.randomUUID());
+        versions.add(postRepository.findVersionById(postId).orElseThrow());
+        insertComment(postId, "Комментарий", false);
+        postRepository.reconcileCommentsCount();
+        versions.add(postRepository.findVersionById(postId).orElseThrow());
+
+        assertEquals(versions.size(), Set.copyOf(versions).size());
+
+        postRepository.deleteById(postId);
+        assertTrue(postRepository.findVersionById(postId).isEmpty());
+        assertTrue(postRepository.findVersionById(-1L).isEmpty());
+    }
+
     @Test
     void create_shouldPersistPost() {
         var post = postRepository.create("Заголовок", "Тело", Set.of("tag1", "tag2"));
@@ -133,6 +303,57 @@ public class PostRepositoryTest extends PostgresRepositoryTest {
         assertPostEquals(post, dbPost);
     }
 
+    @Test
+    void createAll_shouldPersistPostsInBatch() {
+        var posts = List.of(
+                new Post(null, "Заголовок 1", "Тело 1", 3, 2, null, Set.of("tag1", "tag2"), false),
+                new Post(null, "Заголовок 2", "Тело 2", 0, 0, null, Set.of(), false)
+        );
+        var statementCount = new AtomicInteger();
+        var countingRepository = new PostJdbcRepository(new JdbcTemplate(countingDataSource(statementCount)));
+
+        var postIds = countingRepository.createAll(posts);
+
+        assertEquals(2, postIds.size());
+        assertEquals(2, statementCount.get());
+        for (int i = 0; i < posts.size(); i++) {
+            var expected = posts.get(i);
+            expected.setId(postIds.get(i));
+            assertPostEquals(expected, postRepository.findById(postIds.get(i)).orElseThrow());
+        }
+    }
+
+    @Test
+    void streamAllWithComments_shouldWalkPostsWithComments() {
+        var firstPostId = insertPost("Заголовок 1", "Тело 1", 4, null, false);
+        insertPostTag(firstPostId, "tag1");
+        insertPostTag(firstPostId, "tag2");
+        insertComment(firstPostId, "Комментарий 1", false);
+        insertComment(firstPostId, "Комментарий 2", true);
+        insertComment(firstPostId, "Комментарий 3", false);
+        var deletedPostId = insertPost("Заголовок 2", "Тело 2", 0, null, true);
+        insertComment(deletedPostId, "Комментарий 4", false);
+        var lastPostId = insertPost("Заголовок 3", "Тело 3", 0, null, false);
+
+        var rows = new ArrayList<String>();
+        var posts = new ArrayList<Post>();
+        postRepository.streamAllWithComments(post -> {
+                    posts.add(post);
+                    rows.add("post " + post.getId());
+                },
+                comment -> rows.add(comment.getPostId() + ": " + comment.getText()));
+
+        assertEquals(List.of(
+                "post " + firstPostId,
+                firstPostId + ": Комментарий 1",
+                firstPostId + ": Комментарий 3",
+                "post " + lastPostId
+        ), rows);
+        assertEquals(Set.of("tag1", "tag2"), posts.get(0).getTags());
+        assertEquals(4, posts.get(0).getLikesCount());
+        assertEquals(Set.of(), posts.get(1).getTags());
+    }
+
     @Test
     void update_shouldUpdatePost() {
         var postId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
@@ -153,6 +374,37 @@ public class PostRepositoryTest extends PostgresRepositoryTest {
         );
     }
 
+    @Test
+    void create_shouldInsertTagsInBatch() {
+        var tags = IntStream.rangeClosed(1, 20).mapToObj("tag%s"::formatted).collect(Collectors.toSet());
+        var statementCount = new AtomicInteger();
+        var countingRepository = new PostJdbcRepository(new JdbcTemplate(countingDataSource(statementCount)));
+
+        var post = countingRepository.create("Заголовок", "Тело", tags);
+
+        assertEquals(tags, post.getTags());
+        assertEquals(4, statementCount.get());
+    }
+
+    @Test
+    void update_shouldWriteOnlyChangedTags() {
+        var postId = insertPost("Заголовок 1", "Тело 1", 0, null, false);
+        IntStream.rangeClosed(1, 20).forEach(i -> insertPostTag(postId, "tag" + i));
+        var statementCount = new AtomicInteger();
+        var countingRepository = new PostJdbcRepository(new JdbcTemplate(countingDataSource(statementCount)));
+
+        var unchangedTags = IntStream.rangeClosed(1, 20).mapToObj("tag%s"::formatted).collect(Collectors.toSet());
+        countingRepository.update(postId, "Заголовок 2", "Тело 2", unchangedTags);
+        assertEquals(2, statementCount.get());
+        assertEquals(unchangedTags, postRepository.findById(postId).orElseThrow().getTags());
+
+        statementCount.set(0);
+        var changedTags = IntStream.rangeClosed(2, 22).mapToObj("tag%s"::formatted).collect(Collectors.toSet());
+        countingRepository.update(postId, "Заголовок 2", "Тело 2", changedTags);
+        assertEquals(4, statementCount.get());
+        assertEquals(changedTags, postRepository.findById(postId).orElseThrow().getTags());
+    }
+
     @Test
     void update_shouldDoNothing() {
         var postId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
@@ -172,7 +424,7 @@ public class PostRepositoryTest extends PostgresRepositoryTest {
     void incrementLike_shouldIncreaseLikesCount() {
         var postId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
 
-        postRepository.incrementLikes(postId);
+        assertEquals(Optional.of(5), postRepository.incrementLikes(postId));
 
         var updatedPost = postRepository.findById(postId).orElse(null);
         assertNotNull(updatedPost);
@@ -180,6 +432,15 @@ public class PostRepositoryTest extends PostgresRepositoryTest {
         assertEquals(5, updatedPost.getLikesCount());
     }
 
+    @Test
+    void incrementLike_shouldSkipDeletedPost() {
+        var postId = insertPost("Заголовок 1", "Тело 1", 4, null, true);
+
+        assertTrue(postRepository.incrementLikes(postId).isEmpty());
+
+        assertEquals(4, postRepository.findById(postId).orElseThrow().getLikesCount());
+    }
+
     @Test
     void incrementLike_shouldDoNothing() {
         var postId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
@@ -187,7 +448,7 @@ public class PostRepositoryTest extends PostgresRepositoryTest {
         insertPostTag(postId, "tag2");
         var beforePost = postRepository.findById(postId).orElseThrow();
 
-        postRepository.incrementLikes(100500L);
+        assertTrue(postRepository.incrementLikes(100500L).isEmpty());
         assertTrue(postRepository.findById(100500L).isEmpty());
 
         var afterPost = postRepository.findById(postId).orElseThrow();
@@ -195,6 +456,19 @@ public class PostRepositoryTest extends PostgresRepositoryTest {
         assertPostEquals(beforePost, afterPost);
     }
 
+    @Test
+    void addLikes_shouldApplyDeltas() {
+        var firstPostId = insertPost("Заголовок 1", "Тело 1", 4, null, false);
+        var secondPostId = insertPost("Заголовок 2", "Тело 2", 0, null, false);
+        var untouchedPostId = insertPost("Заголовок 3", "Тело 3", 7, null, false);
+
+        postRepository.addLikes(Map.of(firstPostId, 3, secondPostId, 10, 100500L, 1));
+
+        assertEquals(7, postRepository.findById(firstPostId).orElseThrow().getLikesCount());
+        assertEquals(10, postRepository.findById(secondPostId).orElseThrow().getLikesCount());
+        assertEquals(7, postRepository.findById(untouchedPostId).orElseThrow().getLikesCount());
+    }
+
     @Test
     void updateImageUuid_shouldUpdateImageUuid() {
         var postId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
@@ -224,6 +498,22 @@ public class PostRepositoryTest extends PostgresRepositoryTest {
         assertPostEquals(beforePost, afterPost);
     }
 
+    @Test
+    void replaceImageUuid_shouldReplaceOnlyExpectedImage() {
+        var imageUuid = UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089");
+        var newImageUuid = UUID.fromString("90167857-9a33-4643-a2b6-3253c246099e");
+        var postId = insertPost("Заголовок 1", "Тело 1", 4, imageUuid, false);
+
+        assertFalse(postRepository.replaceImageUuid(postId, newImageUuid, null));
+        assertEquals(imageUuid, postRepository.findById(postId).orElseThrow().getImageUuid());
+
+        assertTrue(postRepository.replaceImageUuid(postId, imageUuid, newImageUuid));
+        assertEquals(newImageUuid, postRepository.findById(postId).orElseThrow().getImageUuid());
+
+        assertTrue(postRepository.replaceImageUuid(postId, newImageUuid, null));
+        assertNull(postRepository.findById(postId).orElseThrow().getImageUuid());
+    }
+
     @Test
     void deleteById_shouldDeletePost() {
         var postId = insertPost("Заголовок 1", "Тело 1", 4, UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089"), false);
@@ -251,12 +541,47 @@ public class PostRepositoryTest extends PostgresRepositoryTest {
         assertPostEquals(beforePost, afterPost);
     }
 
+    @Test
+    void reconcileCommentsCount_shouldFixDriftedCounts() {
+        var driftedPostId = insertPost("Заголовок 1", "Тело 1", 0, null, false);
+        insertComment(driftedPostId, "Комментарий 1", false);
+        insertComment(driftedPostId, "Комментарий 2", true);
+        var consistentPostId = insertPost("Заголовок 2", "Тело 2", 0, null, false);
+        jdbcTemplate.update("update posts set comments_count = 5 where post_id = ?;", driftedPostId);
+
+        assertEquals(1, postRepository.reconcileCommentsCount());
+        assertEquals(1, postRepository.findById(driftedPostId).orElseThrow().getCommentsCount());
+        assertEquals(0, postRepository.findById(consistentPostId).orElseThrow().getCommentsCount());
+        assertEquals(0, postRepository.reconcileCommentsCount());
+    }
+
+    private DataSource countingDataSource(AtomicInteger statementCount) {
+        return new DelegatingDataSource(dataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                var connection = super.getConnection();
+                return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                        (proxy, method, args) -> {
+                            if (method.getName().startsWith("prepare") || method.getName().equals("createStatement")) {
+                                statementCount.incrementAndGet();
+                            }
+                            try {
+                                return method.invoke(connection, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getTargetException();
+                            }
+                        });
+            }
+        };
+    }
+
     private void assertPostEquals(Post expected, Post actual) {
         assertAll(
                 () -> assertEquals(expected.getId(), actual.getId()),
                 () -> assertEquals(expected.getTitle(), actual.getTitle()),
                 () -> assertEquals(expected.getText(), actual.getText()),
                 () -> assertEquals(expected.getLikesCount(), actual.getLikesCount()),
+                () -> assertEquals(expected.getCommentsCount(), actual.getCommentsCount()),
                 () -> assertEquals(expected.getImageUuid(), actual.getImageUuid()),
                 () -> assertEquals(expected.getTags(), actual.getTags()),
                 () -> assertEquals(expected.isDeleted(), actual.isDeleted())
@@ -285,4 +610,10 @@ public class PostRepositoryTest extends PostgresRepositoryTest {
                 insert into post_tag (post_id, tag) values (?, ?);
                 """, postId, tag);
     }
-}
+
+    private void insertComment(long postId, String text, boolean deleted) {
+        jdbcTemplate.update("""
+                insert into comments (post_id, text, deleted) values (?, ?, ?);
+                """, postId, text, deleted);
+    }
+}
\ No newline at end of file
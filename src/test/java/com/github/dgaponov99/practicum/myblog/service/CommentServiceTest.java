@@ -3,6 +3,7 @@ package com.github.dgaponov99.practicum.myblog.service;
 
 import com.github.dgaponov99.practicum.myblog.config.ServiceTestConfig;
 import com.github.dgaponov99.practicum.myblog.dto.CommentDTO;
+import com.github.dgaponov99.practicum.myblog.dto.CommentImportChunkDTO;
 import com.github.dgaponov99.practicum.myblog.dto.data.CommentDataDTO;
 import com.github.dgaponov99.practicum.myblog.exception.CommentNotFoundException;
 import com.github.dgaponov99.practicum.myblog.exception.PostNotFoundException;
@@ -15,9 +16,13 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -97,7 +102,7 @@ public class CommentServiceTest {
         }
         comments.add(new Comment(4L, postId, "Комментарий " + 4, true));
 
-        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(postId, "Заголовок", "Текст", 0, null, Collections.emptySet(), false)));
+        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(postId, "Заголовок", "Текст", 0, 0, null, Collections.emptySet(), false)));
         when(commentRepository.findByPostId(anyLong())).thenReturn(comments);
 
         assertDoesNotThrow(() -> {
@@ -116,7 +121,7 @@ public class CommentServiceTest {
         var comments = new ArrayList<Comment>(1);
         comments.add(new Comment(4L, postId, "Комментарий " + 4, true));
 
-        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(postId, "Заголовок", "Текст", 0, null, Collections.emptySet(), false)));
+        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(postId, "Заголовок", "Текст", 0, 0, null, Collections.emptySet(), false)));
         when(commentRepository.findByPostId(anyLong())).thenReturn(comments);
 
         assertDoesNotThrow(() -> {
@@ -140,6 +145,66 @@ public class CommentServiceTest {
         verifyNoMoreInteractions(postRepository, commentRepository);
     }
 
+    @Test
+    void getByPostIdAfter_success() {
+        var postId = 1L;
+
+        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(postId, "Заголовок", "Текст", 0, 0, null, Collections.emptySet(), false)));
+        when(commentRepository.findByPostIdAfter(anyLong(), any(), anyInt())).thenReturn(List.of(new Comment(3L, postId, "Комментарий 3", false)));
+
+        assertDoesNotThrow(() -> assertEquals(List.of(new CommentDTO(3, postId, "Комментарий 3")), commentService.getByPostIdAfter(postId, 2L, 10)));
+        verify(postRepository, times(1)).findById(postId);
+        verify(commentRepository, times(1)).findByPostIdAfter(postId, 2L, 10);
+        verifyNoMoreInteractions(postRepository, commentRepository);
+    }
+
+    @Test
+    void getByPostIdAfter_postNotFound() {
+        when(postRepository.findById(anyLong())).thenReturn(Optional.empty());
+
+        assertThrows(PostNotFoundException.class, () -> commentService.getByPostIdAfter(1L, null, 10));
+        verify(commentRepository, times(0)).findByPostIdAfter(anyLong(), any(), anyInt());
+    }
+
+    @Test
+    void streamByPostId_shouldMapEachComment() {
+        var postId = 1L;
+
+        doAnswer(invocation -> {
+            Consumer<Comment> consumer = invocation.getArgument(1);
+            consumer.accept(new Comment(1L, postId, "Комментарий 1", false));
+            consumer.accept(new Comment(2L, postId, "Комментарий 2", false));
+            return null;
+        }).when(commentRepository).streamByPostId(anyLong(), any());
+
+        var commentDTOs = new ArrayList<CommentDTO>();
+        commentService.streamByPostId(postId, commentDTOs::add);
+
+        assertEquals(List.of(new CommentDTO(1, postId, "Комментарий 1"), new CommentDTO(2, postId, "Комментарий 2")), commentDTOs);
+    }
+
+    @Test
+    void getCommentsVersion_success() {
+        var postId = 1L;
+
+        when(postRepository.findVersionById(anyLong())).thenReturn(Optional.of(5L));
+
+        assertDoesNotThrow(() -> assertEquals(5L, commentService.getCommentsVersion(postId)));
+        verify(postRepository, times(1)).findVersionById(postId);
+        verifyNoMoreInteractions(postRepository, commentRepository);
+    }
+
+    @Test
+    void getCommentsVersion_postNotFound() {
+        var postId = 1L;
+
+        when(postRepository.findVersionById(anyLong())).thenReturn(Optional.empty());
+
+        assertThrows(PostNotFoundException.class, () -> commentService.getCommentsVersion(postId));
+        verify(postRepository, times(1)).findVersionById(postId);
+        verifyNoMoreInteractions(postRepository, commentRepository);
+    }
+
     @Test
     void createComment_success() {
         var commentId = 1L;
@@ -147,15 +212,13 @@ public class CommentServiceTest {
         var commentText = "Комментарий";
         var expectedCommentDto = new CommentDTO(commentId, postId, commentText);
 
-        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(postId, "Заголовок", "Текст", 0, null, Collections.emptySet(), false)));
-        when(commentRepository.create(postId, commentText)).thenReturn(new Comment(commentId, postId, commentText, false));
+        when(commentRepository.create(postId, commentText)).thenReturn(Optional.of(new Comment(commentId, postId, commentText, false)));
 
         assertDoesNotThrow(() -> {
             var commentDto = commentService.createComment(postId, new CommentDataDTO(commentText));
             assertEquals(expectedCommentDto, commentDto);
         });
 
-        verify(postRepository, times(1)).findById(postId);
         verify(commentRepository, times(1)).create(postId, commentText);
         verifyNoMoreInteractions(postRepository, commentRepository);
     }
@@ -165,11 +228,11 @@ public class CommentServiceTest {
         var postId = 1L;
         var commentText = "Комментарий";
 
-        when(postRepository.findById(anyLong())).thenReturn(Optional.empty());
+        when(commentRepository.create(anyLong(), any())).thenReturn(Optional.empty());
 
         assertThrows(PostNotFoundException.class, () -> commentService.createComment(postId, new CommentDataDTO(commentText)));
 
-        verify(postRepository, times(1)).findById(postId);
+        verify(commentRepository, times(1)).create(postId, commentText);
         verifyNoMoreInteractions(postRepository, commentRepository);
     }
 
@@ -180,34 +243,89 @@ public class CommentServiceTest {
         var newCommentText = "Новый комментарий";
         var expectedCommentDto = new CommentDTO(commentId, postId, newCommentText);
 
-        doNothing().when(commentRepository).update(anyLong(), any());
-        when(commentRepository.findById(anyLong()))
-                .thenReturn(Optional.of(new Comment(commentId, postId, "Старый комментарий", false)))
-                .thenReturn(Optional.of(new Comment(commentId, postId, newCommentText, false)));
+        when(commentRepository.update(anyLong(), anyLong(), any())).thenReturn(Optional.of(new Comment(commentId, postId, newCommentText, false)));
 
         assertDoesNotThrow(() -> {
-            var commentDto = commentService.editComment(commentId, new CommentDataDTO(newCommentText));
+            var commentDto = commentService.editComment(postId, commentId, new CommentDataDTO(newCommentText));
             assertEquals(expectedCommentDto, commentDto);
         });
 
-        verify(commentRepository, times(2)).findById(commentId);
-        verify(commentRepository, times(1)).update(commentId, newCommentText);
+        verify(commentRepository, times(1)).update(postId, commentId, newCommentText);
         verifyNoMoreInteractions(postRepository, commentRepository);
     }
 
     @Test
     void editComment_failNotFound() {
         var commentId = 1L;
+        var postId = 1L;
         var newCommentText = "Новый комментарий";
 
-        when(commentRepository.findById(anyLong())).thenReturn(Optional.empty());
+        when(commentRepository.update(anyLong(), anyLong(), any())).thenReturn(Optional.empty());
 
-        assertThrows(CommentNotFoundException.class, () -> commentService.editComment(commentId, new CommentDataDTO(newCommentText)));
+        assertThrows(CommentNotFoundException.class, () -> commentService.editComment(postId, commentId, new CommentDataDTO(newCommentText)));
 
-        verify(commentRepository, times(1)).findById(commentId);
+        verify(commentRepository, times(1)).update(postId, commentId, newCommentText);
         verifyNoMoreInteractions(postRepository, commentRepository);
     }
 
+    @Test
+    void importComments_shouldWriteChunksAndCountRejected() {
+        var postId = 1L;
+        var ndjson = """
+                {"text": "Комментарий 1"}
+                {"text": "Комментарий 2"}
+                не json
+
+                {"text": ""}
+                {"text": "Комментарий 3"}
+                """;
+
+        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(postId, "Заголовок", "Текст", 0, 0, null, Collections.emptySet(), false)));
+        // Список текстов переиспользуется между пачками, поэтому запоминаем копии
+        var chunks = new ArrayList<List<String>>();
+        when(commentRepository.copyAll(anyLong(), any())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(1);
+            chunks.add(List.copyOf(texts));
+            return texts.size();
+        });
+
+        var results = assertDoesNotThrow(() -> commentService.importComments(postId, new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)), 2));
+
+        assertEquals(List.of(
+                new CommentImportChunkDTO(1, 1, 2, 2, 0, null),
+                new CommentImportChunkDTO(2, 3, 5, 0, 2, null),
+                new CommentImportChunkDTO(3, 6, 6, 1, 0, null)
+        ), results);
+        assertEquals(List.of(List.of("Комментарий 1", "Комментарий 2"), List.of("Комментарий 3")), chunks);
+        verify(commentRepository, times(2)).copyAll(eq(postId), any());
+    }
+
+    @Test
+    void importComments_shouldStopWhenPostIsDeleted() {
+        var postId = 1L;
+        var ndjson = """
+                {"text": "Комментарий 1"}
+                {"text": "Комментарий 2"}
+                """;
+
+        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(postId, "Заголовок", "Текст", 0, 0, null, Collections.emptySet(), false)));
+        when(commentRepository.copyAll(anyLong(), any())).thenReturn(0);
+
+        var results = assertDoesNotThrow(() -> commentService.importComments(postId, new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)), 1));
+
+        assertEquals(1, results.size());
+        assertNotNull(results.get(0).getError());
+        verify(commentRepository, times(1)).copyAll(anyLong(), any());
+    }
+
+    @Test
+    void importComments_postNotFound() {
+        when(postRepository.findById(anyLong())).thenReturn(Optional.empty());
+
+        assertThrows(PostNotFoundException.class, () -> commentService.importComments(1L, new ByteArrayInputStream(new byte[0]), 10));
+        verify(commentRepository, never()).copyAll(anyLong(), any());
+    }
+
     @Test
     void deleteComment() {
         var commentId = 100500L;
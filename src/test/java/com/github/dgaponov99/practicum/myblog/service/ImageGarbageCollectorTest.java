@@ -0,0 +1,140 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.github.dgaponov99.practicum.myblog.persistence.repository.ImageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ImageGarbageCollectorTest {
+
+    private static final String ORPHAN_SHA = "ab".repeat(32);
+    private static final String STORED_SHA = "cd".repeat(32);
+
+    @TempDir
+    Path imageDir;
+
+    private PostImageService postImageService;
+    private ImageRepository imageRepository;
+    private SimpleMeterRegistry meterRegistry;
+    private ImageGarbageCollector imageGarbageCollector;
+
+    @BeforeEach
+    void setUp() {
+        postImageService = mock(PostImageService.class);
+        imageRepository = mock(ImageRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+        imageGarbageCollector = new ImageGarbageCollector(postImageService, imageRepository, meterRegistry, true, imageDir.toString(), 3600, 2, 0);
+        when(imageRepository.findUnreferencedUuids(any(), any(), anyInt())).thenReturn(List.of());
+        when(imageRepository.findExistingBlobs(any())).thenReturn(Set.of(STORED_SHA));
+        when(imageRepository.findReferencedUuids(any())).thenReturn(Set.of());
+    }
+
+    @Test
+    void collect_shouldDeleteOldOrphanFiles() throws Exception {
+        var orphanBlob = writeFile(blobPath(ORPHAN_SHA), 10, true);
+        var orphanThumb = writeFile(orphanBlob.resolveSibling(ORPHAN_SHA + "-thumb.jpg"), 3, true);
+        var storedBlob = writeFile(blobPath(STORED_SHA), 10, true);
+        var staleUpload = writeFile(imageDir.resolve("upload-1.tmp"), 5, true);
+        var legacy = writeFile(imageDir.resolve(UUID.randomUUID().toString()), 7, true);
+        when(postImageService.deleteBlobIfUnused(ORPHAN_SHA)).thenAnswer(invocation -> {
+            Files.delete(orphanThumb);
+            Files.delete(orphanBlob);
+            return OptionalLong.of(13);
+        });
+
+        var report = imageGarbageCollector.collect();
+
+        assertAll(
+                () -> assertTrue(Files.notExists(orphanBlob)),
+                () -> assertTrue(Files.notExists(orphanThumb)),
+                () -> assertTrue(Files.exists(storedBlob)),
+                () -> assertTrue(Files.notExists(staleUpload)),
+                () -> assertTrue(Files.notExists(legacy)),
+                () -> assertEquals(25, report.reclaimedBytes()),
+                () -> assertEquals(25.0, meterRegistry.get("image.gc.reclaimed").counter().count()),
+                () -> assertEquals(1, meterRegistry.get("image.gc.scan").timer().count())
+        );
+    }
+
+    @Test
+    void collect_shouldKeepBlobReferencedAgain() throws Exception {
+        var blob = writeFile(blobPath(ORPHAN_SHA), 10, true);
+        when(imageRepository.findExistingBlobs(any())).thenReturn(Set.of());
+        when(postImageService.deleteBlobIfUnused(any())).thenReturn(OptionalLong.empty());
+
+        var report = imageGarbageCollector.collect();
+
+        assertTrue(Files.exists(blob));
+        assertEquals(0, report.deletedFiles());
+        verify(postImageService, times(1)).deleteBlobIfUnused(ORPHAN_SHA);
+    }
+
+    @Test
+    void collect_shouldKeepFilesWithinGracePeriod() throws Exception {
+        var recentBlob = writeFile(blobPath(ORPHAN_SHA), 10, false);
+        var recentUpload = writeFile(imageDir.resolve("upload-1.tmp"), 5, false);
+
+        var report = imageGarbageCollector.collect();
+
+        assertTrue(Files.exists(recentBlob));
+        assertTrue(Files.exists(recentUpload));
+        assertEquals(0, report.deletedFiles());
+        verify(imageRepository, never()).findExistingBlobs(any());
+    }
+
+    @Test
+    void collect_shouldKeepReferencedLegacyFiles() throws Exception {
+        var imageUuid = UUID.randomUUID();
+        var legacy = writeFile(imageDir.resolve(imageUuid.toString()), 7, true);
+        when(imageRepository.findReferencedUuids(any())).thenReturn(Set.of(imageUuid));
+
+        imageGarbageCollector.collect();
+
+        assertTrue(Files.exists(legacy));
+    }
+
+    @Test
+    void collect_shouldDeleteUnreferencedRecordsInBatches() {
+        var first = UUID.randomUUID();
+        var second = UUID.randomUUID();
+        var third = UUID.randomUUID();
+        when(imageRepository.findUnreferencedUuids(any(), isNull(), eq(2))).thenReturn(List.of(first, second));
+        when(imageRepository.findUnreferencedUuids(any(), eq(second), eq(2))).thenReturn(List.of(third));
+        when(postImageService.deleteUnreferencedImage(any())).thenReturn(OptionalLong.of(4));
+        when(postImageService.deleteUnreferencedImage(second)).thenReturn(OptionalLong.empty());
+
+        var report = imageGarbageCollector.collect();
+
+        assertEquals(2, report.deletedRecords());
+        assertEquals(8, report.reclaimedBytes());
+        verify(postImageService, times(3)).deleteUnreferencedImage(any());
+    }
+
+    private Path blobPath(String sha256) {
+        return imageDir.resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+    }
+
+    private Path writeFile(Path path, int size, boolean old) throws Exception {
+        Files.createDirectories(path.getParent());
+        Files.write(path, new byte[size]);
+        if (old) {
+            Files.setLastModifiedTime(path, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+        }
+        return path;
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.github.dgaponov99.practicum.myblog.dto.ImageJobStatusDTO;
+import com.github.dgaponov99.practicum.myblog.exception.ImageQueueFullException;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ImageProcessingPipelineTest {
+
+    private PostImageService postImageService;
+    private PostRepository postRepository;
+    private SimpleMeterRegistry meterRegistry;
+    private ImageProcessingPipeline imageProcessingPipeline;
+
+    @BeforeEach
+    void setUp() {
+        postImageService = mock(PostImageService.class);
+        postRepository = mock(PostRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+        imageProcessingPipeline = new ImageProcessingPipeline(postImageService, postRepository, meterRegistry, 1, 2, 3, 10, 60);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        imageProcessingPipeline.destroy();
+    }
+
+    @Test
+    void submit_shouldGenerateVariantsAndDeleteOldImage() throws Exception {
+        var imageUuid = UUID.randomUUID();
+        var oldImageUuid = UUID.randomUUID();
+        when(postImageService.validateImage(imageUuid)).thenReturn(true);
+
+        imageProcessingPipeline.reserve();
+        imageProcessingPipeline.submitAfterCommit(1L, imageUuid, oldImageUuid);
+
+        var status = awaitFinished(1L);
+        assertEquals(ImageJobStatusDTO.State.DONE, status.getState());
+        assertEquals(imageUuid, status.getImageUuid());
+        verify(postImageService, times(1)).generateVariants(imageUuid);
+        verify(postImageService, times(1)).deleteImage(oldImageUuid);
+        verifyNoInteractions(postRepository);
+        assertEquals(1.0, meterRegistry.get("image.pipeline.jobs").tag("result", "done").counter().count());
+        assertEquals(1, meterRegistry.get("image.pipeline.stage").tag("stage", "variants").tag("result", "success").timer().count());
+        assertEquals(0.0, meterRegistry.get("image.pipeline.in.flight").gauge().value());
+    }
+
+    @Test
+    void submit_shouldRevertUndecodableImage() throws Exception {
+        var imageUuid = UUID.randomUUID();
+        var oldImageUuid = UUID.randomUUID();
+        when(postImageService.validateImage(imageUuid)).thenReturn(false);
+        when(postRepository.replaceImageUuid(anyLong(), any(), any())).thenReturn(true);
+        when(postRepository.findById(1L)).thenReturn(Optional.of(post(oldImageUuid)));
+
+        imageProcessingPipeline.reserve();
+        imageProcessingPipeline.submitAfterCommit(1L, imageUuid, oldImageUuid);
+
+        var status = awaitFinished(1L);
+        assertEquals(ImageJobStatusDTO.State.FAILED, status.getState());
+        assertNotNull(status.getError());
+        verify(postRepository, times(1)).replaceImageUuid(1L, imageUuid, oldImageUuid);
+        verify(postImageService, times(1)).deleteImage(imageUuid);
+        verify(postImageService, never()).deleteImage(oldImageUuid);
+        verify(postImageService, never()).generateVariants(any());
+    }
+
+    @Test
+    void submit_shouldDeleteOldImageWhenPostChangedMeanwhile() throws Exception {
+        var imageUuid = UUID.randomUUID();
+        var oldImageUuid = UUID.randomUUID();
+        when(postImageService.validateImage(imageUuid)).thenReturn(false);
+        when(postRepository.replaceImageUuid(anyLong(), any(), any())).thenReturn(false);
+        when(postRepository.findById(1L)).thenReturn(Optional.of(post(UUID.randomUUID())));
+
+        imageProcessingPipeline.reserve();
+        imageProcessingPipeline.submitAfterCommit(1L, imageUuid, oldImageUuid);
+
+        assertEquals(ImageJobStatusDTO.State.FAILED, awaitFinished(1L).getState());
+        verify(postRepository, times(1)).replaceImageUuid(1L, imageUuid, oldImageUuid);
+        verify(postImageService, times(1)).deleteImage(imageUuid);
+        verify(postImageService, times(1)).deleteImage(oldImageUuid);
+    }
+
+    @Test
+    void submit_shouldKeepRevertedImageWhenRevertIsRetried() throws Exception {
+        var imageUuid = UUID.randomUUID();
+        var oldImageUuid = UUID.randomUUID();
+        when(postImageService.validateImage(imageUuid)).thenReturn(false);
+        when(postRepository.replaceImageUuid(anyLong(), any(), any())).thenReturn(true).thenReturn(false);
+        when(postRepository.findById(1L)).thenReturn(Optional.of(post(oldImageUuid)));
+        doThrow(new RuntimeException("disk")).doNothing().when(postImageService).deleteImage(imageUuid);
+
+        imageProcessingPipeline.reserve();
+        imageProcessingPipeline.submitAfterCommit(1L, imageUuid, oldImageUuid);
+
+        var status = awaitFinished(1L);
+        assertEquals(ImageJobStatusDTO.State.FAILED, status.getState());
+        assertEquals("Unsupported image format", status.getError());
+        verify(postImageService, times(1)).validateImage(imageUuid);
+        verify(postImageService, times(2)).deleteImage(imageUuid);
+        verify(postImageService, never()).deleteImage(oldImageUuid);
+    }
+
+    @Test
+    void submit_shouldRetryFailedStage() throws Exception {
+        var imageUuid = UUID.randomUUID();
+        when(postImageService.validateImage(imageUuid)).thenReturn(true);
+        doThrow(new RuntimeException("disk")).doNothing().when(postImageService).generateVariants(imageUuid);
+
+        imageProcessingPipeline.reserve();
+        imageProcessingPipeline.submitAfterCommit(1L, imageUuid, null);
+
+        assertEquals(ImageJobStatusDTO.State.DONE, awaitFinished(1L).getState());
+        verify(postImageService, times(2)).generateVariants(imageUuid);
+        verify(postImageService, times(1)).validateImage(imageUuid);
+        assertEquals(1.0, meterRegistry.get("image.pipeline.retries").counter().count());
+    }
+
+    @Test
+    void submit_shouldFailAfterMaxAttempts() throws Exception {
+        var imageUuid = UUID.randomUUID();
+        when(postImageService.validateImage(imageUuid)).thenReturn(true);
+        doThrow(new RuntimeException("disk")).when(postImageService).generateVariants(imageUuid);
+
+        imageProcessingPipeline.reserve();
+        imageProcessingPipeline.submitAfterCommit(1L, imageUuid, UUID.randomUUID());
+
+        var status = awaitFinished(1L);
+        assertEquals(ImageJobStatusDTO.State.FAILED, status.getState());
+        assertEquals("disk", status.getError());
+        verify(postImageService, times(3)).generateVariants(imageUuid);
+        verify(postImageService, never()).deleteImage(any());
+    }
+
+    @Test
+    void reserve_shouldRejectWhenQueueIsFull() throws Exception {
+        imageProcessingPipeline.reserve();
+        imageProcessingPipeline.reserve();
+
+        assertThrows(ImageQueueFullException.class, () -> imageProcessingPipeline.reserve());
+
+        imageProcessingPipeline.release();
+        assertDoesNotThrow(() -> imageProcessingPipeline.reserve());
+    }
+
+    private Post post(UUID imageUuid) {
+        return new Post(1L, "Заголовок", "Текст", 0, 0, imageUuid, Set.of(), false);
+    }
+
+    private ImageJobStatusDTO awaitFinished(long postId) throws InterruptedException {
+        var deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            var status = imageProcessingPipeline.getStatus(postId).orElseThrow();
+            if (status.getState() == ImageJobStatusDTO.State.DONE || status.getState() == ImageJobStatusDTO.State.FAILED) {
+                // Слот освобождается сразу после статуса, даём воркеру закончить
+                Thread.sleep(50);
+                return status;
+            }
+            Thread.sleep(10);
+        }
+        return fail("Image job was not finished in time");
+    }
+
+}
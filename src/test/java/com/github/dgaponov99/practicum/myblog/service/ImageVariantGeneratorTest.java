@@ -0,0 +1,96 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.github.dgaponov99.practicum.myblog.dto.ImageVariant;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageVariantGeneratorTest {
+
+    @TempDir
+    Path imageDir;
+
+    private ImageVariantGenerator imageVariantGenerator;
+
+    @BeforeEach
+    void setUp() {
+        imageVariantGenerator = new ImageVariantGenerator(40_000_000);
+    }
+
+    @Test
+    void generate_shouldScaleDownToVariantWidths() throws Exception {
+        var sourcePath = writeImage(1000, 500, BufferedImage.TYPE_INT_RGB);
+
+        imageVariantGenerator.generate(sourcePath);
+
+        var thumbPath = imageVariantGenerator.findVariant(sourcePath, ImageVariant.THUMB).orElseThrow();
+        var mediumPath = imageVariantGenerator.findVariant(sourcePath, ImageVariant.MEDIUM).orElseThrow();
+        var thumb = ImageIO.read(thumbPath.toFile());
+        var medium = ImageIO.read(mediumPath.toFile());
+        assertAll(
+                () -> assertEquals(200, thumb.getWidth()),
+                () -> assertEquals(100, thumb.getHeight()),
+                () -> assertEquals(800, medium.getWidth()),
+                () -> assertEquals(400, medium.getHeight()),
+                () -> assertEquals(MediaType.IMAGE_JPEG_VALUE, imageVariantGenerator.contentType(thumbPath))
+        );
+    }
+
+    @Test
+    void generate_shouldKeepTransparencyInPng() throws Exception {
+        var sourcePath = writeImage(400, 400, BufferedImage.TYPE_INT_ARGB);
+
+        imageVariantGenerator.generate(sourcePath);
+
+        var thumbPath = imageVariantGenerator.findVariant(sourcePath, ImageVariant.THUMB).orElseThrow();
+        assertEquals(MediaType.IMAGE_PNG_VALUE, imageVariantGenerator.contentType(thumbPath));
+        assertTrue(ImageIO.read(thumbPath.toFile()).getColorModel().hasAlpha());
+        assertTrue(imageVariantGenerator.findVariant(sourcePath, ImageVariant.MEDIUM).isEmpty());
+    }
+
+    @Test
+    void generate_shouldSkipTooLargeImages() throws Exception {
+        var sourcePath = writeImage(1000, 500, BufferedImage.TYPE_INT_RGB);
+        new ImageVariantGenerator(1000).generate(sourcePath);
+
+        assertTrue(imageVariantGenerator.findVariant(sourcePath, ImageVariant.THUMB).isEmpty());
+    }
+
+    @Test
+    void isDecodable_shouldRejectNonImages() throws Exception {
+        var imagePath = writeImage(10, 10, BufferedImage.TYPE_INT_RGB);
+        var textPath = Files.writeString(imageDir.resolve("text"), "not an image");
+
+        assertTrue(imageVariantGenerator.isDecodable(imagePath));
+        assertFalse(imageVariantGenerator.isDecodable(textPath));
+    }
+
+    @Test
+    void deleteVariants_shouldRemoveAllVariants() throws Exception {
+        var sourcePath = writeImage(1000, 500, BufferedImage.TYPE_INT_RGB);
+        imageVariantGenerator.generate(sourcePath);
+
+        var thumbSize = Files.size(imageVariantGenerator.findVariant(sourcePath, ImageVariant.THUMB).orElseThrow());
+        var mediumSize = Files.size(imageVariantGenerator.findVariant(sourcePath, ImageVariant.MEDIUM).orElseThrow());
+
+        assertEquals(thumbSize + mediumSize, imageVariantGenerator.deleteVariants(sourcePath));
+        assertTrue(imageVariantGenerator.findVariant(sourcePath, ImageVariant.THUMB).isEmpty());
+        assertTrue(imageVariantGenerator.findVariant(sourcePath, ImageVariant.MEDIUM).isEmpty());
+        assertTrue(sourcePath.toFile().exists());
+    }
+
+    private Path writeImage(int width, int height, int type) throws Exception {
+        var sourcePath = imageDir.resolve("source");
+        ImageIO.write(new BufferedImage(width, height, type), "png", sourcePath.toFile());
+        return sourcePath;
+    }
+
+}
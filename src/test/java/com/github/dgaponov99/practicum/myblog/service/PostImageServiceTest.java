@@ -0,0 +1,294 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.github.dgaponov99.practicum.myblog.dto.ImageVariant;
+import com.github.dgaponov99.practicum.myblog.exception.ImageNotFoundException;
+import com.github.dgaponov99.practicum.myblog.exception.ImageTooLargeException;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Image;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.ImageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class PostImageServiceTest {
+
+    private static final byte[] PNG_STUB = {(byte) 137, 80, 78, 71, 13, 10, 26, 10, 0, 0, 0, 13};
+
+    @TempDir
+    Path imageDir;
+
+    private ImageRepository imageRepository;
+    private ImageVariantGenerator imageVariantGenerator;
+    private PostImageService postImageService;
+
+    @BeforeEach
+    void setUp() {
+        imageRepository = mock(ImageRepository.class);
+        imageVariantGenerator = mock(ImageVariantGenerator.class);
+        postImageService = new PostImageService(imageRepository, imageVariantGenerator, mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(postImageService, "postImageDirectoryPath", imageDir.toString());
+        ReflectionTestUtils.setField(postImageService, "maxImageSize", 16L);
+    }
+
+    @Test
+    void storeImage_shouldStoreFileByContentHash() throws Exception {
+        var sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(PNG_STUB));
+
+        var image = saveImage(PNG_STUB);
+
+        assertAll(
+                () -> assertEquals(sha256, image.getSha256()),
+                () -> assertEquals(MediaType.IMAGE_PNG_VALUE, image.getContentType()),
+                () -> assertEquals(PNG_STUB.length, image.getSize()),
+                () -> assertArrayEquals(PNG_STUB, Files.readAllBytes(blobPath(sha256)))
+        );
+        verify(imageRepository, times(1)).create(image);
+    }
+
+    @Test
+    void storeImage_shouldStoreIdenticalContentOnce() throws Exception {
+        var first = saveImage(PNG_STUB);
+        var second = saveImage(PNG_STUB);
+
+        assertNotEquals(first.getUuid(), second.getUuid());
+        assertEquals(first.getSha256(), second.getSha256());
+        assertEquals(1, countFiles());
+    }
+
+    @Test
+    void stageImage_shouldRejectTooLargeWithoutLeftovers() throws Exception {
+        assertThrows(ImageTooLargeException.class, () -> postImageService.stageImage(new ByteArrayInputStream(new byte[17])));
+
+        assertEquals(0, countFiles());
+        verifyNoInteractions(imageRepository);
+    }
+
+    @Test
+    void stageImage_shouldDeleteUnstoredFileOnClose() throws Exception {
+        try (var stagedImage = postImageService.stageImage(new ByteArrayInputStream(PNG_STUB))) {
+            assertEquals(PNG_STUB.length, stagedImage.getImage().getSize());
+            assertEquals(1, countFiles());
+        }
+
+        assertEquals(0, countFiles());
+        verifyNoInteractions(imageRepository);
+    }
+
+    @Test
+    void storeImage_shouldRefreshExistingFileTime() throws Exception {
+        var first = saveImage(PNG_STUB);
+        var oldTime = FileTime.from(Instant.now().minus(Duration.ofDays(2)));
+        Files.setLastModifiedTime(blobPath(first.getSha256()), oldTime);
+
+        saveImage(PNG_STUB);
+
+        assertTrue(Files.getLastModifiedTime(blobPath(first.getSha256())).compareTo(oldTime) > 0);
+    }
+
+    @Test
+    void validateImage_shouldCheckStoredFile() throws Exception {
+        var image = saveImage(PNG_STUB);
+        when(imageRepository.findByUuid(image.getUuid())).thenReturn(Optional.of(image));
+        when(imageVariantGenerator.isDecodable(blobPath(image.getSha256()))).thenReturn(true);
+
+        assertTrue(postImageService.validateImage(image.getUuid()));
+        assertFalse(postImageService.validateImage(UUID.randomUUID()));
+    }
+
+    @Test
+    void generateVariants_shouldGenerateForStoredFile() throws Exception {
+        var image = saveImage(PNG_STUB);
+        when(imageRepository.findByUuid(image.getUuid())).thenReturn(Optional.of(image));
+
+        postImageService.generateVariants(image.getUuid());
+
+        verify(imageVariantGenerator, times(1)).generate(blobPath(image.getSha256()));
+    }
+
+    @Test
+    void deleteImage_shouldKeepFileWhileReferenced() throws Exception {
+        var image = saveImage(PNG_STUB);
+        when(imageRepository.deleteByUuid(any())).thenReturn(Optional.of(image));
+        when(imageRepository.releaseBlob(any())).thenReturn(false);
+
+        postImageService.deleteImage(image.getUuid());
+
+        assertTrue(Files.exists(blobPath(image.getSha256())));
+    }
+
+    @Test
+    void deleteImage_shouldRemoveFileWithLastReference() throws Exception {
+        var image = saveImage(PNG_STUB);
+        when(imageRepository.deleteByUuid(any())).thenReturn(Optional.of(image));
+        when(imageRepository.releaseBlob(any())).thenReturn(true);
+        when(imageRepository.deleteUnusedBlob(any())).thenReturn(true);
+
+        postImageService.deleteImage(image.getUuid());
+
+        assertTrue(Files.notExists(blobPath(image.getSha256())));
+        verify(imageRepository, times(1)).releaseBlob(image.getSha256());
+        verify(imageRepository, times(1)).deleteUnusedBlob(image.getSha256());
+        verify(imageVariantGenerator, times(1)).deleteVariants(blobPath(image.getSha256()));
+    }
+
+    @Test
+    void deleteImage_shouldRemoveFileOnlyAfterCommit() throws Exception {
+        var image = saveImage(PNG_STUB);
+        when(imageRepository.deleteByUuid(any())).thenReturn(Optional.of(image));
+        when(imageRepository.releaseBlob(any())).thenReturn(true);
+        when(imageRepository.deleteUnusedBlob(any())).thenReturn(true);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            postImageService.deleteImage(image.getUuid());
+            assertTrue(Files.exists(blobPath(image.getSha256())));
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertTrue(Files.notExists(blobPath(image.getSha256())));
+    }
+
+    @Test
+    void deleteImage_shouldKeepFileOnRollback() throws Exception {
+        var image = saveImage(PNG_STUB);
+        when(imageRepository.deleteByUuid(any())).thenReturn(Optional.of(image));
+        when(imageRepository.releaseBlob(any())).thenReturn(true);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            postImageService.deleteImage(image.getUuid());
+
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertTrue(Files.exists(blobPath(image.getSha256())));
+        verify(imageRepository, never()).deleteUnusedBlob(any());
+    }
+
+    @Test
+    void deleteBlobIfUnused_shouldKeepFileWhenReferencedAgain() throws Exception {
+        var image = saveImage(PNG_STUB);
+        when(imageRepository.deleteUnusedBlob(any())).thenReturn(false);
+
+        assertTrue(postImageService.deleteBlobIfUnused(image.getSha256()).isEmpty());
+        assertTrue(Files.exists(blobPath(image.getSha256())));
+    }
+
+    @Test
+    void deleteUnreferencedImage_shouldReportReclaimedBytes() throws Exception {
+        var image = saveImage(PNG_STUB);
+        when(imageRepository.deleteUnreferencedByUuid(image.getUuid())).thenReturn(Optional.of(image));
+        when(imageRepository.releaseBlob(image.getSha256())).thenReturn(true);
+        when(imageRepository.deleteUnusedBlob(image.getSha256())).thenReturn(true);
+
+        assertEquals(OptionalLong.of(PNG_STUB.length), postImageService.deleteUnreferencedImage(image.getUuid()));
+        assertTrue(Files.notExists(blobPath(image.getSha256())));
+    }
+
+    @Test
+    void deleteUnreferencedImage_shouldSkipReferenced() {
+        when(imageRepository.deleteUnreferencedByUuid(any())).thenReturn(Optional.empty());
+
+        assertTrue(postImageService.deleteUnreferencedImage(UUID.randomUUID()).isEmpty());
+        verify(imageRepository, never()).releaseBlob(any());
+    }
+
+    @Test
+    void getImage_shouldResolveByContentHash() throws Exception {
+        var image = saveImage(PNG_STUB);
+        when(imageRepository.findByUuid(any())).thenReturn(Optional.of(image));
+
+        var imageDTO = postImageService.getImage(image.getUuid(), ImageVariant.ORIGINAL);
+
+        assertEquals(blobPath(image.getSha256()).toFile(), imageDTO.getResource().getFile());
+        assertEquals(MediaType.IMAGE_PNG_VALUE, imageDTO.getContentType());
+    }
+
+    @Test
+    void getImage_shouldServeVariant() throws Exception {
+        var image = saveImage(PNG_STUB);
+        var thumbPath = Files.write(blobPath(image.getSha256()).resolveSibling(image.getSha256() + "-thumb.jpg"), new byte[]{1});
+        when(imageRepository.findByUuid(any())).thenReturn(Optional.of(image));
+        when(imageVariantGenerator.findVariant(any(), eq(ImageVariant.THUMB))).thenReturn(Optional.of(thumbPath));
+        when(imageVariantGenerator.contentType(any())).thenReturn(MediaType.IMAGE_JPEG_VALUE);
+
+        var imageDTO = postImageService.getImage(image.getUuid(), ImageVariant.THUMB);
+
+        assertEquals(thumbPath.toFile(), imageDTO.getResource().getFile());
+        assertEquals(MediaType.IMAGE_JPEG_VALUE, imageDTO.getContentType());
+        assertEquals(ImageVariant.THUMB, imageDTO.getVariant());
+    }
+
+    @Test
+    void getImage_shouldFallBackToOriginalWithoutVariant() throws Exception {
+        var image = saveImage(PNG_STUB);
+        when(imageRepository.findByUuid(any())).thenReturn(Optional.of(image));
+        when(imageVariantGenerator.findVariant(any(), any())).thenReturn(Optional.empty());
+
+        var imageDTO = postImageService.getImage(image.getUuid(), ImageVariant.MEDIUM);
+
+        assertEquals(blobPath(image.getSha256()).toFile(), imageDTO.getResource().getFile());
+        assertEquals(ImageVariant.ORIGINAL, imageDTO.getVariant());
+    }
+
+    @Test
+    void getImage_shouldFallBackToLegacyFile() throws Exception {
+        var imageUuid = UUID.randomUUID();
+        Files.write(imageDir.resolve(imageUuid.toString()), PNG_STUB);
+        when(imageRepository.findByUuid(any())).thenReturn(Optional.empty());
+
+        var imageDTO = postImageService.getImage(imageUuid, ImageVariant.THUMB);
+
+        assertArrayEquals(PNG_STUB, imageDTO.getResource().getContentAsByteArray());
+        assertEquals(MediaType.APPLICATION_OCTET_STREAM_VALUE, imageDTO.getContentType());
+    }
+
+    @Test
+    void getImage_shouldThrowWhenFileIsMissing() {
+        when(imageRepository.findByUuid(any())).thenReturn(Optional.of(new Image(UUID.randomUUID(), MediaType.IMAGE_PNG_VALUE, 1, "ab".repeat(32))));
+
+        assertThrows(ImageNotFoundException.class, () -> postImageService.getImage(UUID.randomUUID(), ImageVariant.ORIGINAL));
+    }
+
+    private Image saveImage(byte[] bytes) throws Exception {
+        try (var stagedImage = postImageService.stageImage(new ByteArrayInputStream(bytes))) {
+            return postImageService.storeImage(stagedImage);
+        }
+    }
+
+    private Path blobPath(String sha256) {
+        return imageDir.resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+    }
+
+    private long countFiles() throws Exception {
+        try (var files = Files.walk(imageDir)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+}
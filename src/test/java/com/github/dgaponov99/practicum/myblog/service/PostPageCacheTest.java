@@ -0,0 +1,145 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.github.dgaponov99.practicum.myblog.dto.PostDTO;
+import com.github.dgaponov99.practicum.myblog.dto.PostPageDTO;
+import com.github.dgaponov99.practicum.myblog.persistence.event.PostChangedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PostPageCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private PostPageCache postPageCache;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        postPageCache = new PostPageCache(true, 60, 100, meterRegistry);
+        loads = new AtomicInteger();
+    }
+
+    @Test
+    void get_shouldCacheAndCountHits() {
+        postPageCache.get("", Set.of(), 1, 10, () -> page(1, 2));
+        postPageCache.get("", Set.of(), 1, 10, () -> page(1, 2));
+        postPageCache.get("", Set.of(), 2, 10, () -> page(3));
+
+        assertEquals(2, loads.get());
+        assertEquals(1.0, requests("hit"));
+        assertEquals(2.0, requests("miss"));
+    }
+
+    @Test
+    void get_shouldCoalesceConcurrentMisses() throws Exception {
+        var threads = 16;
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(threads);
+        var futures = new ArrayList<Future<PostPageDTO>>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> postPageCache.get("", Set.of(), 1, 10, () -> {
+                    started.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return page(1);
+                })));
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Thread.sleep(200);
+            release.countDown();
+            for (var future : futures) {
+                assertEquals(1, future.get(5, TimeUnit.SECONDS).getPosts().size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(1.0, requests("miss"));
+        assertEquals(threads - 1.0, requests("coalesced") + requests("hit"));
+    }
+
+    @Test
+    void invalidatePost_shouldDropOnlyPagesContainingPost() {
+        postPageCache.get("", Set.of(), 1, 10, () -> page(1, 2));
+        postPageCache.get("", Set.of(), 2, 10, () -> page(3));
+
+        postPageCache.onPostChanged(new PostChangedEvent(2L));
+        postPageCache.get("", Set.of(), 1, 10, () -> page(1, 2));
+        postPageCache.get("", Set.of(), 2, 10, () -> page(3));
+
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void invalidatePost_shouldUnindexOtherPostsOfDroppedPages() {
+        postPageCache.get("", Set.of(), 1, 10, () -> page(1, 2));
+        postPageCache.get("", Set.of(), 2, 10, () -> page(3));
+
+        postPageCache.invalidatePost(2L);
+
+        assertEquals(Set.of(3L), ((Map<?, ?>) ReflectionTestUtils.getField(postPageCache, "keysByPostId")).keySet());
+    }
+
+    @Test
+    void invalidateAll_shouldDropAllPages() {
+        postPageCache.get("", Set.of(), 1, 10, () -> page(1));
+        postPageCache.get("заголовок", Set.of("tag1"), 1, 10, () -> page(1));
+
+        postPageCache.invalidateAll();
+        postPageCache.get("", Set.of(), 1, 10, () -> page(1));
+        postPageCache.get("Заголовок", Set.of("tag1"), 1, 10, () -> page(1));
+
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void get_shouldReturnCopies() {
+        postPageCache.get("", Set.of(), 1, 10, () -> page(1)).getPosts().get(0).setText("...");
+
+        assertEquals("Текст 1", postPageCache.get("", Set.of(), 1, 10, () -> page(1)).getPosts().get(0).getText());
+    }
+
+    @Test
+    void get_shouldBypassWhenDisabled() {
+        var disabledCache = new PostPageCache(false, 60, 100, meterRegistry);
+
+        disabledCache.get("", Set.of(), 1, 10, () -> page(1));
+        disabledCache.get("", Set.of(), 1, 10, () -> page(1));
+
+        assertEquals(2, loads.get());
+    }
+
+    private PostPageDTO page(long... postIds) {
+        loads.incrementAndGet();
+        List<PostDTO> posts = new ArrayList<>();
+        for (var postId : postIds) {
+            posts.add(new PostDTO(postId, "Заголовок " + postId, "Текст " + postId, Set.of("tag1"), 0, 0, null));
+        }
+        return new PostPageDTO(posts, false, false, 1, null);
+    }
+
+    private double requests(String result) {
+        return meterRegistry.get("posts.page.cache.requests").tag("result", result).counter().count();
+    }
+
+}
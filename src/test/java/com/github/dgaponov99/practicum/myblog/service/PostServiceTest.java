@@ -2,20 +2,28 @@ package com.github.dgaponov99.practicum.myblog.service;
 
 
 import com.github.dgaponov99.practicum.myblog.config.ServiceTestConfig;
+import com.github.dgaponov99.practicum.myblog.dto.ImageDTO;
+import com.github.dgaponov99.practicum.myblog.dto.ImageJobStatusDTO;
+import com.github.dgaponov99.practicum.myblog.dto.ImageVariant;
 import com.github.dgaponov99.practicum.myblog.dto.PostDTO;
 import com.github.dgaponov99.practicum.myblog.dto.data.PostDataDTO;
+import com.github.dgaponov99.practicum.myblog.exception.ImageQueueFullException;
+import com.github.dgaponov99.practicum.myblog.exception.ImageTooLargeException;
+import com.github.dgaponov99.practicum.myblog.exception.InvalidCursorException;
 import com.github.dgaponov99.practicum.myblog.exception.PostNotFoundException;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Image;
 import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.PostSlice;
 import com.github.dgaponov99.practicum.myblog.persistence.repository.CommentRepository;
 import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.*;
 
@@ -34,10 +42,17 @@ public class PostServiceTest {
     private CommentRepository commentRepository;
     @Autowired
     private PostImageService postImageService;
+    @Autowired
+    private PostCountCache postCountCache;
+    @Autowired
+    private PostLikesAccumulator postLikesAccumulator;
+    @Autowired
+    private ImageProcessingPipeline imageProcessingPipeline;
 
     @BeforeEach
     public void setUp() {
-        reset(postRepository, commentRepository, postImageService);
+        reset(postRepository, commentRepository, postImageService, postCountCache, postLikesAccumulator, imageProcessingPipeline);
+        when(postCountCache.get(any(), any())).thenReturn(OptionalInt.empty());
     }
 
     @Test
@@ -52,14 +67,12 @@ public class PostServiceTest {
         var postList = new ArrayList<Post>(size);
         var postDtoList = new ArrayList<PostDTO>(size);
         for (int i = 1; i <= count; i++) {
-            postList.add(new Post((long) i, "Заголовок " + i, "Текст " + i, i, null, Set.of("tag1", "tag2"), false));
-            postDtoList.add(new PostDTO(i, "Заголовок " + i, "Текст " + i, Set.of("tag1", "tag2"), i, 2));
+            postList.add(new Post((long) i, "Заголовок " + i, "Текст " + i, i, 2, null, Set.of("tag1", "tag2"), false));
+            postDtoList.add(new PostDTO(i, "Заголовок " + i, "Текст " + i, Set.of("tag1", "tag2"), i, 2, null));
         }
 
 
-        when(postRepository.findAll(any(), any(), anyInt(), anyInt())).thenReturn(postList);
-        when(postRepository.count(any(), any())).thenReturn(count);
-        when(commentRepository.countByPostId(any())).thenReturn(2);
+        when(postRepository.findAllWithTotal(any(), any(), anyInt(), anyInt())).thenReturn(new PostSlice(postList, count));
 
         var postPageDto = postService.searchPosts(title, tags, page, size);
         assertNotNull(postPageDto);
@@ -68,9 +81,7 @@ public class PostServiceTest {
         assertFalse(postPageDto.isHasNext());
         assertFalse(postPageDto.isHasPrev());
 
-        verify(postRepository, times(1)).findAll(title, tags, size, 0);
-        verify(postRepository, times(1)).count(title, tags);
-        verify(commentRepository, times(count)).countByPostId(any());
+        verify(postRepository, times(1)).findAllWithTotal(title, tags, size + 1, 0);
         verifyNoMoreInteractions(postRepository, commentRepository);
     }
 
@@ -83,17 +94,17 @@ public class PostServiceTest {
 
         var count = 100;
 
-        var postList = new ArrayList<Post>(size);
+        var postList = new ArrayList<Post>(size + 1);
         var postDtoList = new ArrayList<PostDTO>(size);
+        for (int i = 1; i <= size + 1; i++) {
+            postList.add(new Post((long) i, "Заголовок " + i, "Текст " + i, i, 2, null, Set.of("tag1", "tag2"), false));
+        }
         for (int i = 1; i <= size; i++) {
-            postList.add(new Post((long) i, "Заголовок " + i, "Текст " + i, i, null, Set.of("tag1", "tag2"), false));
-            postDtoList.add(new PostDTO(i, "Заголовок " + i, "Текст " + i, Set.of("tag1", "tag2"), i, 2));
+            postDtoList.add(new PostDTO(i, "Заголовок " + i, "Текст " + i, Set.of("tag1", "tag2"), i, 2, null));
         }
 
 
-        when(postRepository.findAll(any(), any(), anyInt(), anyInt())).thenReturn(postList);
-        when(postRepository.count(any(), any())).thenReturn(count);
-        when(commentRepository.countByPostId(any())).thenReturn(2);
+        when(postRepository.findAllWithTotal(any(), any(), anyInt(), anyInt())).thenReturn(new PostSlice(postList, count));
 
         var postPageDto = postService.searchPosts(title, tags, page, size);
         assertNotNull(postPageDto);
@@ -101,10 +112,9 @@ public class PostServiceTest {
         assertEquals(10, postPageDto.getLastPage());
         assertTrue(postPageDto.isHasNext());
         assertTrue(postPageDto.isHasPrev());
+        assertNotNull(postPageDto.getNextCursor());
 
-        verify(postRepository, times(1)).findAll(title, tags, size, 10);
-        verify(postRepository, times(1)).count(title, tags);
-        verify(commentRepository, times(size)).countByPostId(any());
+        verify(postRepository, times(1)).findAllWithTotal(title, tags, size + 1, 10);
         verifyNoMoreInteractions(postRepository, commentRepository);
     }
 
@@ -120,14 +130,12 @@ public class PostServiceTest {
         var postList = new ArrayList<Post>(size);
         var postDtoList = new ArrayList<PostDTO>(size);
         for (int i = 1; i < size; i++) {
-            postList.add(new Post((long) i, "Заголовок " + i, "Текст " + i, i, null, Set.of("tag1", "tag2"), false));
-            postDtoList.add(new PostDTO(i, "Заголовок " + i, "Текст " + i, Set.of("tag1", "tag2"), i, 2));
+            postList.add(new Post((long) i, "Заголовок " + i, "Текст " + i, i, 2, null, Set.of("tag1", "tag2"), false));
+            postDtoList.add(new PostDTO(i, "Заголовок " + i, "Текст " + i, Set.of("tag1", "tag2"), i, 2, null));
         }
 
 
-        when(postRepository.findAll(any(), any(), anyInt(), anyInt())).thenReturn(postList);
-        when(postRepository.count(any(), any())).thenReturn(count);
-        when(commentRepository.countByPostId(any())).thenReturn(2);
+        when(postRepository.findAllWithTotal(any(), any(), anyInt(), anyInt())).thenReturn(new PostSlice(postList, count));
 
         var postPageDto = postService.searchPosts(title, tags, page, size);
         assertNotNull(postPageDto);
@@ -136,9 +144,7 @@ public class PostServiceTest {
         assertFalse(postPageDto.isHasNext());
         assertTrue(postPageDto.isHasPrev());
 
-        verify(postRepository, times(1)).findAll(title, tags, size, 90);
-        verify(postRepository, times(1)).count(title, tags);
-        verify(commentRepository, times(size - 1)).countByPostId(any());
+        verify(postRepository, times(1)).findAllWithTotal(title, tags, size + 1, 90);
         verifyNoMoreInteractions(postRepository, commentRepository);
     }
 
@@ -152,9 +158,7 @@ public class PostServiceTest {
         var count = 0;
 
 
-        when(postRepository.findAll(any(), any(), anyInt(), anyInt())).thenReturn(Collections.emptyList());
-        when(postRepository.count(any(), any())).thenReturn(count);
-        when(commentRepository.countByPostId(any())).thenReturn(2);
+        when(postRepository.findAllWithTotal(any(), any(), anyInt(), anyInt())).thenReturn(new PostSlice(Collections.emptyList(), count));
 
         var postPageDto = postService.searchPosts(title, tags, page, size);
         assertNotNull(postPageDto);
@@ -163,9 +167,136 @@ public class PostServiceTest {
         assertFalse(postPageDto.isHasNext());
         assertFalse(postPageDto.isHasPrev());
 
-        verify(postRepository, times(1)).findAll(title, tags, size, 0);
-        verify(postRepository, times(1)).count(title, tags);
-        verify(commentRepository, times(0)).countByPostId(any());
+        verify(postRepository, times(1)).findAllWithTotal(title, tags, size + 1, 0);
+        verifyNoMoreInteractions(postRepository, commentRepository);
+    }
+
+    @Test
+    void searchPosts_approximateCountCached() {
+        var title = "";
+        Set<String> tags = Collections.emptySet();
+        var size = 10;
+        var page = 1;
+
+        var postList = new ArrayList<Post>(size + 1);
+        for (int i = 1; i <= size + 1; i++) {
+            postList.add(new Post((long) i, "Заголовок " + i, "Текст " + i, i, 2, null, Set.of("tag1", "tag2"), false));
+        }
+
+        when(postCountCache.get(any(), any())).thenReturn(OptionalInt.of(100_000));
+        when(postRepository.findAll(any(), any(), anyInt(), anyInt())).thenReturn(postList);
+
+        var postPageDto = postService.searchPosts(title, tags, page, size);
+        assertEquals(size, postPageDto.getPosts().size());
+        assertEquals(10_000, postPageDto.getLastPage());
+        assertTrue(postPageDto.isHasNext());
+
+        verify(postRepository, times(1)).findAll(title, tags, size + 1, 0);
+        verify(postCountCache, never()).put(any(), any(), anyInt());
+        verifyNoMoreInteractions(postRepository, commentRepository);
+    }
+
+    @Test
+    void searchPosts_writeBehindPendingLikes() {
+        when(postLikesAccumulator.isEnabled()).thenReturn(true);
+        when(postLikesAccumulator.pending(anyLong())).thenReturn(5L);
+        when(postRepository.findAllWithTotal(any(), any(), anyInt(), anyInt())).thenReturn(new PostSlice(List.of(
+                new Post(1L, "Заголовок", "Текст", 10, 0, null, Set.of("tag1"), false)), 1));
+
+        var postPageDto = postService.searchPosts("", Collections.emptySet(), 1, 10);
+
+        assertEquals(15, postPageDto.getPosts().get(0).getLikesCount());
+        verify(postLikesAccumulator, times(1)).pending(1L);
+    }
+
+    @Test
+    void searchPostsFullText() {
+        var query = "пирог";
+        Set<String> tags = Set.of("tag1");
+        var size = 2;
+
+        var postList = new ArrayList<Post>(size + 1);
+        var postDtoList = new ArrayList<PostDTO>(size);
+        for (int i = 1; i <= size + 1; i++) {
+            postList.add(new Post((long) i, "Пирог " + i, "Текст " + i, i, 0, null, tags, false));
+        }
+        for (int i = 1; i <= size; i++) {
+            postDtoList.add(new PostDTO(i, "Пирог " + i, "Текст " + i, tags, i, 0, null));
+        }
+
+        when(postRepository.findAllByFullText(any(), any(), anyInt(), anyInt())).thenReturn(new PostSlice(postList, 5));
+
+        var postPageDto = postService.searchPostsFullText(query, tags, 2, size);
+        assertEquals(postDtoList, postPageDto.getPosts());
+        assertTrue(postPageDto.isHasNext());
+        assertTrue(postPageDto.isHasPrev());
+        assertEquals(3, postPageDto.getLastPage());
+        assertNull(postPageDto.getNextCursor());
+
+        verify(postRepository, times(1)).findAllByFullText(query, tags, size + 1, size);
+        verifyNoMoreInteractions(postRepository, commentRepository);
+    }
+
+    @Test
+    void searchPostsAfter_firstPage() {
+        var title = "";
+        Set<String> tags = Collections.emptySet();
+        var size = 3;
+
+        var postList = new ArrayList<Post>(size + 1);
+        var postDtoList = new ArrayList<PostDTO>(size);
+        for (int i = 10; i > 10 - size - 1; i--) {
+            postList.add(new Post((long) i, "Заголовок " + i, "Текст " + i, i, 2, null, Set.of("tag1", "tag2"), false));
+        }
+        for (int i = 10; i > 10 - size; i--) {
+            postDtoList.add(new PostDTO(i, "Заголовок " + i, "Текст " + i, Set.of("tag1", "tag2"), i, 2, null));
+        }
+
+        when(postRepository.findAllAfter(any(), any(), anyInt(), any())).thenReturn(postList);
+
+        var postPageDto = assertDoesNotThrow(() -> postService.searchPostsAfter(title, tags, null, size));
+        assertEquals(postDtoList, postPageDto.getPosts());
+        assertTrue(postPageDto.isHasNext());
+        assertFalse(postPageDto.isHasPrev());
+        assertNotNull(postPageDto.getNextCursor());
+
+        verify(postRepository, times(1)).findAllAfter(title, tags, size + 1, null);
+        verifyNoMoreInteractions(postRepository, commentRepository);
+    }
+
+    @Test
+    void searchPostsAfter_followsCursor() throws Exception {
+        var title = "";
+        Set<String> tags = Collections.emptySet();
+        var size = 3;
+
+        var firstPostList = new ArrayList<Post>(size + 1);
+        for (int i = 10; i > 10 - size - 1; i--) {
+            firstPostList.add(new Post((long) i, "Заголовок " + i, "Текст " + i, i, 2, null, Set.of("tag1", "tag2"), false));
+        }
+        var lastPostList = List.of(new Post(7L, "Заголовок 7", "Текст 7", 7, 2, null, Set.of("tag1", "tag2"), false));
+
+        when(postRepository.findAllAfter(any(), any(), anyInt(), any()))
+                .thenReturn(firstPostList)
+                .thenReturn(lastPostList);
+
+        var firstPage = postService.searchPostsAfter(title, tags, null, size);
+        var lastPage = postService.searchPostsAfter(title, tags, firstPage.getNextCursor(), size);
+
+        assertEquals(1, lastPage.getPosts().size());
+        assertFalse(lastPage.isHasNext());
+        assertTrue(lastPage.isHasPrev());
+        assertNull(lastPage.getNextCursor());
+
+        verify(postRepository, times(1)).findAllAfter(title, tags, size + 1, null);
+        verify(postRepository, times(1)).findAllAfter(title, tags, size + 1, 8L);
+        verifyNoMoreInteractions(postRepository, commentRepository);
+    }
+
+    @Test
+    void searchPostsAfter_invalidCursor() {
+        assertThrows(InvalidCursorException.class, () -> postService.searchPostsAfter("", Collections.emptySet(), "не курсор", 10));
+
         verifyNoMoreInteractions(postRepository, commentRepository);
     }
 
@@ -175,10 +306,9 @@ public class PostServiceTest {
         var title = "Заголовок";
         var text = "Текст";
         var tags = Set.of("tag1", "tag2");
-        var expectedPostDTO = new PostDTO(postId, title, text, tags, 10, 3);
+        var expectedPostDTO = new PostDTO(postId, title, text, tags, 10, 3, null);
 
-        var post = new Post(postId, title, text, 10, null, tags, false);
-        when(commentRepository.countByPostId(anyLong())).thenReturn(3);
+        var post = new Post(postId, title, text, 10, 3, null, tags, false);
         when(postRepository.findById(anyLong())).thenReturn(Optional.of(post));
 
         var postDTO = postService.getPost(postId).orElseThrow();
@@ -186,7 +316,6 @@ public class PostServiceTest {
         assertEquals(expectedPostDTO, postDTO);
 
         verify(postRepository, times(1)).findById(postId);
-        verify(commentRepository, times(1)).countByPostId(postId);
         verifyNoMoreInteractions(postRepository, commentRepository);
     }
 
@@ -207,7 +336,7 @@ public class PostServiceTest {
     void getPost_deleted() {
         var postId = 1L;
 
-        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(postId, "Заголовок", "Текст", 3, null, Collections.emptySet(), true)));
+        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(postId, "Заголовок", "Текст", 3, 0, null, Collections.emptySet(), true)));
 
         var postDTOOpt = postService.getPost(postId);
         assertTrue(postDTOOpt.isEmpty());
@@ -224,16 +353,14 @@ public class PostServiceTest {
         var tags = Set.of("tag1", "tag2");
         var postDataDTO = new PostDataDTO(title, text, tags);
 
-        var expectedPostDTO = new PostDTO(postId, title, text, tags, 0, 0);
+        var expectedPostDTO = new PostDTO(postId, title, text, tags, 0, 0, null);
 
-        var post = new Post(postId, title, text, 0, null, tags, false);
+        var post = new Post(postId, title, text, 0, 0, null, tags, false);
         when(postRepository.create(any(), any(), any())).thenReturn(post);
-        when(commentRepository.countByPostId(anyLong())).thenReturn(0);
 
         var postDTO = postService.createPost(postDataDTO);
 
         verify(postRepository, times(1)).create(title, text, tags);
-        verify(commentRepository, times(1)).countByPostId(postId);
         verifyNoMoreInteractions(postRepository, commentRepository);
         assertEquals(expectedPostDTO, postDTO);
     }
@@ -247,12 +374,11 @@ public class PostServiceTest {
         var postDataDTO = new PostDataDTO(title, text, tags);
         var imageUuid = UUID.randomUUID();
 
-        var expectedPostDTO = new PostDTO(postId, title, text, tags, 10, 3);
+        var expectedPostDTO = new PostDTO(postId, title, text, tags, 10, 3, "/api/posts/1/image?v=" + imageUuid);
 
-        when(commentRepository.countByPostId(anyLong())).thenReturn(3);
         when(postRepository.findById(anyLong()))
-                .thenReturn(Optional.of(new Post(postId, "Старый заголовок", "Старый текст", 10, imageUuid, Set.of("tag1", "tag2"), false)))
-                .thenReturn(Optional.of(new Post(postId, title, text, 10, imageUuid, tags, false)));
+                .thenReturn(Optional.of(new Post(postId, "Старый заголовок", "Старый текст", 10, 0, imageUuid, Set.of("tag1", "tag2"), false)))
+                .thenReturn(Optional.of(new Post(postId, title, text, 10, 3, imageUuid, tags, false)));
 
         assertDoesNotThrow(() -> {
             var postDto = postService.editPost(postId, postDataDTO);
@@ -260,7 +386,6 @@ public class PostServiceTest {
         });
 
         verify(postRepository, times(2)).findById(postId);
-        verify(commentRepository, times(1)).countByPostId(postId);
         verify(postRepository, times(1)).update(postId, title, text, tags);
         verifyNoMoreInteractions(postRepository, commentRepository);
     }
@@ -273,7 +398,6 @@ public class PostServiceTest {
         var tags = Set.of("tag3", "tag4");
         var postDataDTO = new PostDataDTO(title, text, tags);
 
-        when(commentRepository.countByPostId(anyLong())).thenReturn(3);
         when(postRepository.findById(anyLong())).thenReturn(Optional.empty());
 
         assertThrows(PostNotFoundException.class, () -> postService.editPost(postId, postDataDTO));
@@ -285,90 +409,145 @@ public class PostServiceTest {
     @Test
     void incrementLikes_success() {
         var postId = 1L;
-        var title = "Заголовок";
-        var text = "Текст";
-        var tags = Set.of("tag1", "tag2");
-        var imageUuid = UUID.randomUUID();
-
-        var likes = 10;
         var expectedLikes = 11;
 
-        doNothing().when(postRepository).incrementLikes(anyLong());
-        when(postRepository.findById(anyLong()))
-                .thenReturn(Optional.of(new Post(postId, title, text, likes, imageUuid, tags, false)))
-                .thenReturn(Optional.of(new Post(postId, title, text, expectedLikes, imageUuid, tags, false)));
+        when(postRepository.incrementLikes(anyLong())).thenReturn(Optional.of(expectedLikes));
 
         assertDoesNotThrow(() -> {
             var newLikes = postService.incrementLikes(postId);
             assertEquals(expectedLikes, newLikes);
         });
 
-        verify(postRepository, times(2)).findById(postId);
         verify(postRepository, times(1)).incrementLikes(postId);
         verifyNoMoreInteractions(postRepository, commentRepository);
     }
 
     @Test
-    void incrementLikes_deleted() {
+    void incrementLikes_writeBehind() {
         var postId = 1L;
-        var likes = 10;
 
+        when(postLikesAccumulator.isEnabled()).thenReturn(true);
+        when(postLikesAccumulator.add(anyLong())).thenReturn(3L);
         when(postRepository.findById(anyLong()))
-                .thenReturn(Optional.of(new Post(postId, "Заголовок", "Текст", likes, null, Set.of("tag1", "tag2"), true)));
+                .thenReturn(Optional.of(new Post(postId, "Заголовок", "Текст", 10, 0, null, Set.of("tag1"), false)));
 
-        assertThrows(PostNotFoundException.class, () -> postService.incrementLikes(postId));
+        assertDoesNotThrow(() -> assertEquals(13, postService.incrementLikes(postId)));
 
         verify(postRepository, times(1)).findById(postId);
+        verify(postLikesAccumulator, times(1)).add(postId);
         verifyNoMoreInteractions(postRepository, commentRepository);
     }
 
     @Test
-    void uploadImage_success() {
+    void getPost_writeBehindPendingLikes() {
+        var postId = 1L;
+
+        when(postLikesAccumulator.isEnabled()).thenReturn(true);
+        when(postLikesAccumulator.pending(anyLong())).thenReturn(5L);
+        when(postRepository.findById(anyLong()))
+                .thenReturn(Optional.of(new Post(postId, "Заголовок", "Текст", 10, 0, null, Set.of("tag1"), false)));
+
+        assertEquals(15, postService.getPost(postId).orElseThrow().getLikesCount());
+    }
+
+    @Test
+    void incrementLikes_deleted() {
+        var postId = 1L;
+
+        when(postRepository.incrementLikes(anyLong())).thenReturn(Optional.empty());
+
+        assertThrows(PostNotFoundException.class, () -> postService.incrementLikes(postId));
+
+        verify(postRepository, times(1)).incrementLikes(postId);
+        verifyNoMoreInteractions(postRepository, commentRepository);
+    }
+
+    @Test
+    void uploadImage_success() throws Exception {
         var postId = 1L;
         var imageUuid = UUID.randomUUID();
         var imageByes = "some-image".getBytes();
         var multipartFile = new MockMultipartFile("file", "image.png", MediaType.IMAGE_PNG_VALUE, imageByes);
 
-        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(1L, "Заголовок", "Текст", 0, null, Set.of("tag1", "tag2"), false)));
-        doNothing().when(postImageService).deleteImage(any());
+        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(1L, "Заголовок", "Текст", 0, 0, null, Set.of("tag1", "tag2"), false)));
         doNothing().when(postRepository).updateImageUuid(anyLong(), any());
-        when(postImageService.saveImage(any())).thenAnswer((invocation) -> {
+        var image = new Image(imageUuid, MediaType.IMAGE_PNG_VALUE, imageByes.length, null);
+        when(postImageService.stageImage(any())).thenAnswer((invocation) -> {
             assertArrayEquals(imageByes, invocation.getArgument(0, InputStream.class).readAllBytes());
-            return imageUuid;
+            return new PostImageService.StagedImage(image, null);
         });
+        when(postImageService.storeImage(any())).thenReturn(image);
 
         assertDoesNotThrow(() -> postService.uploadImage(postId, multipartFile));
 
-        verify(postRepository, times(1)).findById(postId);
-        verify(postImageService, times(0)).deleteImage(any());
-        verify(postImageService, times(1)).saveImage(any());
+        verify(postRepository, times(2)).findById(postId);
+        verify(imageProcessingPipeline, times(1)).reserve();
+        verify(postImageService, times(1)).stageImage(any());
+        verify(postImageService, times(1)).storeImage(any());
         verify(postRepository, times(1)).updateImageUuid(postId, imageUuid);
-        verifyNoMoreInteractions(postRepository, postImageService, commentRepository);
+        verify(imageProcessingPipeline, times(1)).submitAfterCommit(postId, imageUuid, null);
+        verifyNoMoreInteractions(postRepository, postImageService, commentRepository, imageProcessingPipeline);
     }
 
     @Test
-    void uploadImage_successWithRemoveOld() {
+    void uploadImage_successSubmitsOldForCleanup() throws Exception {
         var postId = 1L;
         var oldImageUuid = UUID.randomUUID();
         var imageUuid = UUID.randomUUID();
         var imageBytes = "some-image".getBytes();
         var multipartFile = new MockMultipartFile("file", "image.png", MediaType.IMAGE_PNG_VALUE, imageBytes);
 
-        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(1L, "Заголовок", "Текст", 0, oldImageUuid, Set.of("tag1", "tag2"), false)));
-        doNothing().when(postImageService).deleteImage(any());
+        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(1L, "Заголовок", "Текст", 0, 0, oldImageUuid, Set.of("tag1", "tag2"), false)));
         doNothing().when(postRepository).updateImageUuid(anyLong(), any());
-        when(postImageService.saveImage(any())).thenAnswer((invocation) -> {
+        var image = new Image(imageUuid, MediaType.IMAGE_PNG_VALUE, imageBytes.length, null);
+        when(postImageService.stageImage(any())).thenAnswer((invocation) -> {
             assertArrayEquals(imageBytes, invocation.getArgument(0, InputStream.class).readAllBytes());
-            return imageUuid;
+            return new PostImageService.StagedImage(image, null);
         });
+        when(postImageService.storeImage(any())).thenReturn(image);
 
         assertDoesNotThrow(() -> postService.uploadImage(postId, multipartFile));
 
-        verify(postRepository, times(1)).findById(postId);
-        verify(postImageService, times(1)).deleteImage(oldImageUuid);
-        verify(postImageService, times(1)).saveImage(any());
+        verify(postRepository, times(2)).findById(postId);
+        verify(imageProcessingPipeline, times(1)).reserve();
+        verify(postImageService, times(1)).stageImage(any());
+        verify(postImageService, times(1)).storeImage(any());
         verify(postRepository, times(1)).updateImageUuid(postId, imageUuid);
-        verifyNoMoreInteractions(postRepository, postImageService, commentRepository);
+        verify(imageProcessingPipeline, times(1)).submitAfterCommit(postId, imageUuid, oldImageUuid);
+        verifyNoMoreInteractions(postRepository, postImageService, commentRepository, imageProcessingPipeline);
+    }
+
+    @Test
+    void uploadImage_tooLargeKeepsOld() throws Exception {
+        var postId = 1L;
+        var oldImageUuid = UUID.randomUUID();
+        var multipartFile = new MockMultipartFile("file", "image.png", MediaType.IMAGE_PNG_VALUE, "some-image".getBytes());
+
+        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(1L, "Заголовок", "Текст", 0, 0, oldImageUuid, Set.of("tag1", "tag2"), false)));
+        when(postImageService.stageImage(any())).thenThrow(new ImageTooLargeException(4));
+
+        assertThrows(ImageTooLargeException.class, () -> postService.uploadImage(postId, multipartFile));
+
+        verify(postRepository, times(1)).findById(postId);
+        verify(imageProcessingPipeline, times(1)).reserve();
+        verify(postImageService, times(1)).stageImage(any());
+        verify(imageProcessingPipeline, times(1)).release();
+        verifyNoMoreInteractions(postRepository, postImageService, commentRepository, imageProcessingPipeline);
+    }
+
+    @Test
+    void uploadImage_queueFull() throws Exception {
+        var postId = 1L;
+        var multipartFile = new MockMultipartFile("file", "image.png", MediaType.IMAGE_PNG_VALUE, "some-image".getBytes());
+
+        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(1L, "Заголовок", "Текст", 0, 0, null, Set.of("tag1", "tag2"), false)));
+        doThrow(new ImageQueueFullException(1)).when(imageProcessingPipeline).reserve();
+
+        assertThrows(ImageQueueFullException.class, () -> postService.uploadImage(postId, multipartFile));
+
+        verify(postRepository, times(1)).findById(postId);
+        verify(imageProcessingPipeline, times(1)).reserve();
+        verifyNoMoreInteractions(postRepository, postImageService, commentRepository, imageProcessingPipeline);
     }
 
     @Test
@@ -386,53 +565,118 @@ public class PostServiceTest {
     }
 
     @Test
-    void getImage_success() throws Exception {
+    void uploadImage_failDeletedDuringUpload() throws Exception {
         var postId = 1L;
         var imageBytes = "some-image".getBytes();
+        var multipartFile = new MockMultipartFile("file", "image.png", MediaType.IMAGE_PNG_VALUE, imageBytes);
+
+        when(postRepository.findById(anyLong()))
+                .thenReturn(Optional.of(new Post(1L, "Заголовок", "Текст", 0, 0, null, Set.of("tag1", "tag2"), false)))
+                .thenReturn(Optional.empty());
+        when(postImageService.stageImage(any())).thenReturn(new PostImageService.StagedImage(new Image(UUID.randomUUID(), MediaType.IMAGE_PNG_VALUE, imageBytes.length, null), null));
+
+        assertThrows(PostNotFoundException.class, () -> postService.uploadImage(postId, multipartFile));
+
+        verify(postRepository, times(2)).findById(postId);
+        verify(imageProcessingPipeline, times(1)).reserve();
+        verify(postImageService, times(1)).stageImage(any());
+        verify(imageProcessingPipeline, times(1)).release();
+        verifyNoMoreInteractions(postRepository, postImageService, commentRepository, imageProcessingPipeline);
+    }
+
+    @Test
+    void getImageStatus_fromPipeline() {
+        var postId = 1L;
         var imageUuid = UUID.randomUUID();
+        var status = new ImageJobStatusDTO(imageUuid, ImageJobStatusDTO.State.PROCESSING, null);
 
-        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(1L, "Заголовок", "Текст", 0, imageUuid, Set.of("tag1", "tag2"), false)));
-        when(postImageService.getImage(any())).thenReturn(new ByteArrayInputStream(imageBytes));
+        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(1L, "Заголовок", "Текст", 0, 0, imageUuid, Set.of("tag1", "tag2"), false)));
+        when(imageProcessingPipeline.getStatus(anyLong())).thenReturn(Optional.of(status));
 
-        assertDoesNotThrow(() -> {
-            var imageResource = postService.getImage(postId).orElseThrow();
-            assertArrayEquals(imageBytes, imageResource.getContentAsByteArray());
-        });
+        assertDoesNotThrow(() -> assertEquals(Optional.of(status), postService.getImageStatus(postId)));
 
         verify(postRepository, times(1)).findById(postId);
-        verify(postImageService, times(1)).getImage(imageUuid);
+        verify(imageProcessingPipeline, times(1)).getStatus(postId);
+    }
+
+    @Test
+    void getImageStatus_doneWithoutJob() {
+        var postId = 1L;
+        var imageUuid = UUID.randomUUID();
+
+        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(1L, "Заголовок", "Текст", 0, 0, imageUuid, Set.of("tag1", "tag2"), false)));
+        when(imageProcessingPipeline.getStatus(anyLong())).thenReturn(Optional.empty());
+
+        assertDoesNotThrow(() -> assertEquals(Optional.of(new ImageJobStatusDTO(imageUuid, ImageJobStatusDTO.State.DONE, null)),
+                postService.getImageStatus(postId)));
+    }
+
+    @Test
+    void getImage_success() throws Exception {
+        var imageBytes = "some-image".getBytes();
+        var imageUuid = UUID.randomUUID();
+
+        when(postImageService.getImage(any(), any())).thenReturn(new ImageDTO(new ByteArrayResource(imageBytes), MediaType.IMAGE_PNG_VALUE, ImageVariant.THUMB));
+
+        var image = postService.getImage(imageUuid, ImageVariant.THUMB);
+        assertAll(
+                () -> assertArrayEquals(imageBytes, image.getResource().getContentAsByteArray()),
+                () -> assertEquals(MediaType.IMAGE_PNG_VALUE, image.getContentType())
+        );
+
+        verify(postImageService, times(1)).getImage(imageUuid, ImageVariant.THUMB);
         verifyNoMoreInteractions(postRepository, postImageService, commentRepository);
     }
 
     @Test
-    void getImage_empty() throws Exception {
+    void getImageUuid_success() {
         var postId = 1L;
+        var imageUuid = UUID.randomUUID();
 
-        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(1L, "Заголовок", "Текст", 0, null, Set.of("tag1", "tag2"), false)));
+        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(1L, "Заголовок", "Текст", 0, 0, imageUuid, Set.of("tag1", "tag2"), false)));
 
-        assertDoesNotThrow(() -> {
-            var imageResourceOpt = postService.getImage(postId);
-            assertTrue(imageResourceOpt.isEmpty());
-        });
+        assertDoesNotThrow(() -> assertEquals(Optional.of(imageUuid), postService.getImageUuid(postId)));
 
         verify(postRepository, times(1)).findById(postId);
-        verify(postImageService, times(0)).getImage(any());
         verifyNoMoreInteractions(postRepository, postImageService, commentRepository);
     }
 
     @Test
-    void getImage_postNotFound() throws Exception {
+    void getImageUuid_empty() {
+        var postId = 1L;
+
+        when(postRepository.findById(anyLong())).thenReturn(Optional.of(new Post(1L, "Заголовок", "Текст", 0, 0, null, Set.of("tag1", "tag2"), false)));
+
+        assertDoesNotThrow(() -> assertTrue(postService.getImageUuid(postId).isEmpty()));
+
+        verify(postRepository, times(1)).findById(postId);
+        verifyNoMoreInteractions(postRepository, postImageService, commentRepository);
+    }
+
+    @Test
+    void getImageUuid_postNotFound() {
         var postId = 1L;
 
         when(postRepository.findById(anyLong())).thenReturn(Optional.empty());
 
-        assertThrows(PostNotFoundException.class, () -> postService.getImage(postId));
+        assertThrows(PostNotFoundException.class, () -> postService.getImageUuid(postId));
 
         verify(postRepository, times(1)).findById(postId);
-        verify(postImageService, times(0)).getImage(any());
         verifyNoMoreInteractions(postRepository, postImageService, commentRepository);
     }
 
+    @Test
+    void getPostVersion_withPendingLikes() {
+        when(postRepository.findVersionById(anyLong())).thenReturn(Optional.of(42L));
+        when(postLikesAccumulator.isEnabled()).thenReturn(true);
+        when(postLikesAccumulator.pending(anyLong())).thenReturn(3L);
+
+        assertEquals(Optional.of("42.3"), postService.getPostVersion(1L));
+
+        verify(postRepository, times(1)).findVersionById(1L);
+        verifyNoMoreInteractions(postRepository, commentRepository);
+    }
+
     @Test
     void deletePost() {
         var postId = 100500L;
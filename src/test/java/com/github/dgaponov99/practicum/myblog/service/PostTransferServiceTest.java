@@ -0,0 +1,183 @@
+package com.github.dgaponov99.practicum.myblog.service;
+
+import com.github.dgaponov99.practicum.myblog.config.ServiceTestConfig;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Comment;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.CommentRepository;
+import com.github.dgaponov99.practicum.myblog.persistence.repository.PostRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@SpringJUnitConfig(classes = {ServiceTestConfig.class})
+public class PostTransferServiceTest {
+
+    @Autowired
+    private PostTransferService postTransferService;
+
+    @Autowired
+    private PostRepository postRepository;
+    @Autowired
+    private CommentRepository commentRepository;
+
+    private List<Post> createdPosts;
+    private List<List<Comment>> copiedComments;
+    private List<List<String>> copiedTailComments;
+
+    @BeforeEach
+    public void setUp() {
+        reset(postRepository, commentRepository);
+        // Списки переиспользуются между пачками, поэтому запоминаем копии
+        createdPosts = new ArrayList<>();
+        copiedComments = new ArrayList<>();
+        copiedTailComments = new ArrayList<>();
+        var nextPostId = new AtomicLong(100);
+        when(postRepository.createAll(any())).thenAnswer(invocation -> {
+            List<Post> posts = invocation.getArgument(0);
+            posts.forEach(post -> createdPosts.add(new Post(null, post.getTitle(), post.getText(), post.getLikesCount(),
+                    post.getCommentsCount(), null, post.getTags(), false)));
+            return LongStream.range(0, posts.size()).map(i -> nextPostId.getAndIncrement()).boxed().toList();
+        });
+        when(commentRepository.copyAll(anyList())).thenAnswer(invocation -> {
+            List<Comment> comments = invocation.getArgument(0);
+            copiedComments.add(List.copyOf(comments));
+            return comments.size();
+        });
+        when(commentRepository.copyAll(anyLong(), anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(1);
+            copiedTailComments.add(List.copyOf(texts));
+            return texts.size();
+        });
+    }
+
+    @Test
+    void exportPosts_shouldWriteOnePostPerLine() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<Post> postConsumer = invocation.getArgument(0);
+            Consumer<Comment> commentConsumer = invocation.getArgument(1);
+            postConsumer.accept(new Post(1L, "Заголовок 1", "Текст \"1\"", 3, 2, null, Set.of("tag2", "tag1"), false));
+            commentConsumer.accept(new Comment(10L, 1L, "Коммент 1", false));
+            commentConsumer.accept(new Comment(11L, 1L, "Коммент 2", false));
+            postConsumer.accept(new Post(2L, "Заголовок 2", "Текст 2", 0, 0, null, Set.of(), false));
+            return null;
+        }).when(postRepository).streamAllWithComments(any(), any());
+
+        var outputStream = new ByteArrayOutputStream();
+        postTransferService.exportPosts(outputStream);
+
+        assertEquals("""
+                {"id":1,"title":"Заголовок 1","text":"Текст \\"1\\"","tags":["tag1","tag2"],"likesCount":3,"comments":[{"id":10,"text":"Коммент 1"},{"id":11,"text":"Коммент 2"}]}
+                {"id":2,"title":"Заголовок 2","text":"Текст 2","tags":[],"likesCount":0,"comments":[]}
+                """, outputStream.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void exportPosts_empty() throws Exception {
+        var outputStream = new ByteArrayOutputStream();
+        postTransferService.exportPosts(outputStream);
+
+        assertEquals(0, outputStream.size());
+    }
+
+    @Test
+    void importPosts_shouldWriteBatches() {
+        var ndjson = """
+                {"id":1,"title":"Заголовок 1","text":"Текст 1","tags":["tag1"],"likesCount":3,"comments":[{"id":10,"text":"Коммент 1"},{"text":""},"не объект"]}
+                {"title":"","text":"Текст 2","comments":[{"text":"Коммент 2"}]}
+                {"title":"Заголовок 3","text":"Текст 3"}
+
+                {"title":"Заголовок 4","text":"Текст 4","likesCount":-1}
+                {"title":"Заголовок 5","text":"Текст 5","tags":null,"comments":null}
+                """;
+
+        var result = postTransferService.importPosts(toStream(ndjson), 3);
+
+        assertAll(
+                () -> assertNull(result.getError()),
+                () -> assertEquals(2, result.getBatches()),
+                () -> assertEquals(3, result.getImportedPosts()),
+                () -> assertEquals(1, result.getImportedComments()),
+                () -> assertEquals(2, result.getRejectedPosts()),
+                () -> assertEquals(2, result.getRejectedComments())
+        );
+        assertEquals(List.of("Заголовок 1", "Заголовок 3", "Заголовок 5"), createdPosts.stream().map(Post::getTitle).toList());
+        assertEquals(Set.of("tag1"), createdPosts.get(0).getTags());
+        assertEquals(3, createdPosts.get(0).getLikesCount());
+        assertEquals(1, createdPosts.get(0).getCommentsCount());
+        assertEquals(100L, copiedComments.get(0).get(0).getPostId());
+        assertEquals("Коммент 1", copiedComments.get(0).get(0).getText());
+        verify(postRepository, times(2)).createAll(any());
+        verify(commentRepository, never()).copyAll(anyLong(), anyList());
+    }
+
+    @Test
+    void importPosts_shouldSplitPostWithManyComments() {
+        var ndjson = """
+                {"title":"Заголовок 1","text":"Текст 1","comments":[{"text":"К1"},{"text":"К2"},{"text":"К3"},{"text":"К4"},{"text":"К5"}]}
+                {"title":"Заголовок 2","text":"Текст 2","comments":[{"text":"К6"}]}
+                """;
+
+        var result = postTransferService.importPosts(toStream(ndjson), 3);
+
+        assertAll(
+                () -> assertNull(result.getError()),
+                () -> assertEquals(2, result.getImportedPosts()),
+                () -> assertEquals(6, result.getImportedComments())
+        );
+        assertEquals(2, createdPosts.get(0).getCommentsCount());
+        assertEquals(List.of(List.of("К3", "К4", "К5")), copiedTailComments);
+        verify(commentRepository, times(1)).copyAll(eq(100L), anyList());
+        assertEquals(1, createdPosts.get(1).getCommentsCount());
+    }
+
+    @Test
+    void importPosts_shouldStopOnMalformedJson() {
+        var ndjson = """
+                {"title":"Заголовок 1","text":"Текст 1"}
+                {"title":"Заголовок 2","text":"Текст 2","comments":[{"text":"К1"}
+                """;
+
+        var result = postTransferService.importPosts(toStream(ndjson), 10);
+
+        assertNotNull(result.getError());
+        assertEquals(1, result.getImportedPosts());
+        assertEquals(1, result.getRejectedPosts());
+        assertEquals(List.of("Заголовок 1"), createdPosts.stream().map(Post::getTitle).toList());
+    }
+
+    @Test
+    void importPosts_shouldStopOnDatabaseError() {
+        var ndjson = """
+                {"title":"Заголовок 1","text":"Текст 1"}
+                {"title":"Заголовок 2","text":"Текст 2"}
+                {"title":"Заголовок 3","text":"Текст 3"}
+                """;
+        doThrow(new DataIntegrityViolationException("Ошибка записи")).when(postRepository).createAll(any());
+
+        var result = postTransferService.importPosts(toStream(ndjson), 1);
+
+        assertEquals("Ошибка записи", result.getError());
+        assertEquals(0, result.getImportedPosts());
+        verify(postRepository, times(1)).createAll(any());
+    }
+
+    private ByteArrayInputStream toStream(String ndjson) {
+        return new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.github.dgaponov99.practicum.myblog.web;
+
+import com.github.dgaponov99.practicum.myblog.config.WebTestConfig;
+import com.github.dgaponov99.practicum.myblog.dto.MeterDTO;
+import com.github.dgaponov99.practicum.myblog.service.MetricsService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebAppConfiguration
+@SpringJUnitConfig(classes = {WebTestConfig.class})
+public class MetricsControllerTest {
+
+    @Autowired
+    private WebApplicationContext wac;
+
+    @Autowired
+    private MetricsService metricsService;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(wac).build();
+        reset(metricsService);
+    }
+
+    @Test
+    void getMetrics_ok() throws Exception {
+        when(metricsService.getMeters(anyString())).thenReturn(List.of(
+                new MeterDTO("hikaricp.connections.active", Map.of("pool", "my-blog"), Map.of("value", 2.0))
+        ));
+
+        mockMvc.perform(get("/api/admin/metrics")
+                        .queryParam("prefix", "hikaricp"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].name").value("hikaricp.connections.active"))
+                .andExpect(jsonPath("$[0].tags.pool").value("my-blog"))
+                .andExpect(jsonPath("$[0].measurements.value").value(2.0));
+
+        verify(metricsService, times(1)).getMeters("hikaricp");
+        verifyNoMoreInteractions(metricsService);
+    }
+
+}
@@ -2,18 +2,32 @@ package com.github.dgaponov99.practicum.myblog.web;
 
 import com.github.dgaponov99.practicum.myblog.config.WebTestConfig;
 import com.github.dgaponov99.practicum.myblog.dto.CommentDTO;
+import com.github.dgaponov99.practicum.myblog.dto.CommentImportChunkDTO;
+import com.github.dgaponov99.practicum.myblog.dto.ImageDTO;
+import com.github.dgaponov99.practicum.myblog.dto.ImageJobStatusDTO;
+import com.github.dgaponov99.practicum.myblog.dto.ImageVariant;
 import com.github.dgaponov99.practicum.myblog.dto.PostDTO;
 import com.github.dgaponov99.practicum.myblog.dto.PostPageDTO;
 import com.github.dgaponov99.practicum.myblog.dto.data.CommentDataDTO;
 import com.github.dgaponov99.practicum.myblog.dto.data.PostDataDTO;
 import com.github.dgaponov99.practicum.myblog.exception.CommentNotFoundException;
+import com.github.dgaponov99.practicum.myblog.exception.ImageQueueFullException;
+import com.github.dgaponov99.practicum.myblog.exception.ImageTooLargeException;
+import com.github.dgaponov99.practicum.myblog.exception.InvalidCursorException;
 import com.github.dgaponov99.practicum.myblog.exception.PostNotFoundException;
+import com.github.dgaponov99.practicum.myblog.mapper.PostMapper;
+import com.github.dgaponov99.practicum.myblog.persistence.entity.Post;
 import com.github.dgaponov99.practicum.myblog.service.CommentService;
 import com.github.dgaponov99.practicum.myblog.service.PostService;
+import com.jayway.jsonpath.JsonPath;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mapstruct.factory.Mappers;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
@@ -22,13 +36,21 @@ import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
 
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.*;
 import static org.mockito.Mockito.any;
@@ -59,10 +81,10 @@ public class PostControllerTest {
     void searchPosts_ok() throws Exception {
         when(postService.searchPosts(any(), any(), anyInt(), anyInt()))
                 .thenReturn(new PostPageDTO(List.of(
-                        new PostDTO(1, "Заголовок 1", "Текст 1", Set.of("tag1"), 1, 0),
-                        new PostDTO(2, "Заголовок 2", "Текст 2", Set.of("tag1"), 1, 0),
-                        new PostDTO(3, "Заголовок 3", "Текст 3", Set.of("tag1"), 1, 0)
-                ), false, true, 3));
+                        new PostDTO(1, "Заголовок 1", "Текст 1", Set.of("tag1"), 1, 0, null),
+                        new PostDTO(2, "Заголовок 2", "Текст 2", Set.of("tag1"), 1, 0, null),
+                        new PostDTO(3, "Заголовок 3", "Текст 3", Set.of("tag1"), 1, 0, null)
+                ), false, true, 3, null));
 
         mockMvc.perform(get("/api/posts")
                         .queryParam("search", "Заголовок #tag1")
@@ -82,7 +104,7 @@ public class PostControllerTest {
     @Test
     void searchPosts_empty() throws Exception {
         when(postService.searchPosts(any(), any(), anyInt(), anyInt()))
-                .thenReturn(new PostPageDTO(Collections.emptyList(), false, false, 0));
+                .thenReturn(new PostPageDTO(Collections.emptyList(), false, false, 0, null));
 
         mockMvc.perform(get("/api/posts")
                         .queryParam("search", "Неизвестный заголовок")
@@ -99,13 +121,80 @@ public class PostControllerTest {
         verifyNoMoreInteractions(postService, commentService);
     }
 
+    @Test
+    void searchPosts_afterCursor_ok() throws Exception {
+        when(postService.searchPostsAfter(any(), any(), any(), anyInt()))
+                .thenReturn(new PostPageDTO(List.of(
+                        new PostDTO(2, "Заголовок 2", "Текст 2", Set.of("tag1"), 1, 0, null),
+                        new PostDTO(1, "Заголовок 1", "Текст 1", Set.of("tag1"), 1, 0, null)
+                ), true, true, 0, "MQ"));
+
+        mockMvc.perform(get("/api/posts")
+                        .queryParam("search", "Заголовок #tag1")
+                        .queryParam("pageSize", "2")
+                        .queryParam("after", "Mw"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.posts.length()").value(2))
+                .andExpect(jsonPath("$.hasPrev").value(true))
+                .andExpect(jsonPath("$.hasNext").value(true))
+                .andExpect(jsonPath("$.nextCursor").value("MQ"));
+
+        verify(postService, times(1)).searchPostsAfter("Заголовок", Set.of("tag1"), "Mw", 2);
+        verifyNoMoreInteractions(postService, commentService);
+    }
+
+    @Test
+    void searchPosts_afterCursor_invalid() throws Exception {
+        when(postService.searchPostsAfter(any(), any(), any(), anyInt())).thenThrow(new InvalidCursorException("???"));
+
+        mockMvc.perform(get("/api/posts")
+                        .queryParam("after", "???"))
+                .andExpect(status().isBadRequest());
+
+        verify(postService, times(1)).searchPostsAfter("", Collections.emptySet(), "???", 10);
+        verifyNoMoreInteractions(postService, commentService);
+    }
+
+    @Test
+    void searchPosts_fullText_ok() throws Exception {
+        when(postService.searchPostsFullText(any(), any(), anyInt(), anyInt()))
+                .thenReturn(new PostPageDTO(List.of(
+                        new PostDTO(1, "Рецепт пирога", "Текст 1", Set.of("tag1"), 1, 0, null)
+                ), false, false, 1, null));
+
+        mockMvc.perform(get("/api/posts")
+                        .queryParam("search", "пирог яблоки #tag1")
+                        .queryParam("fullText", "true"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.posts.length()").value(1))
+                .andExpect(jsonPath("$.lastPage").value(1));
+
+        verify(postService, times(1)).searchPostsFullText("пирог яблоки", Set.of("tag1"), 1, 10);
+        verifyNoMoreInteractions(postService, commentService);
+    }
+
+    @Test
+    void searchPosts_fullTextWithAfter_badRequest() throws Exception {
+        mockMvc.perform(get("/api/posts")
+                        .queryParam("search", "пирог")
+                        .queryParam("fullText", "true")
+                        .queryParam("after", "abc"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(postService, commentService);
+    }
+
     @Test
     void getPost_ok() throws Exception {
-        when(postService.getPost(anyLong())).thenReturn(Optional.of(new PostDTO(1, "Заголовок", "Текст", Set.of("tag1", "tag2"), 3, 2)));
+        when(postService.getPostVersion(anyLong())).thenReturn(Optional.of("42"));
+        when(postService.getPost(anyLong())).thenReturn(Optional.of(new PostDTO(1, "Заголовок", "Текст", Set.of("tag1", "tag2"), 3, 2, null)));
 
         mockMvc.perform(get("/api/posts/1"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"post-1-42\""))
                 .andExpect(jsonPath("$.id").value(1))
                 .andExpect(jsonPath("$.title").value("Заголовок"))
                 .andExpect(jsonPath("$.text").value("Текст"))
@@ -114,18 +203,33 @@ public class PostControllerTest {
                 .andExpect(jsonPath("$.likesCount").value(3))
                 .andExpect(jsonPath("$.commentsCount").value(2));
 
+        verify(postService, times(1)).getPostVersion(1);
         verify(postService, times(1)).getPost(1);
         verifyNoMoreInteractions(postService, commentService);
     }
 
+    @Test
+    void getPost_notModified() throws Exception {
+        when(postService.getPostVersion(anyLong())).thenReturn(Optional.of("42"));
+
+        mockMvc.perform(get("/api/posts/1")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"post-1-42\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"post-1-42\""))
+                .andExpect(content().string(""));
+
+        verify(postService, times(1)).getPostVersion(1);
+        verifyNoMoreInteractions(postService, commentService);
+    }
+
     @Test
     void getPost_notFound() throws Exception {
-        when(postService.getPost(anyLong())).thenReturn(Optional.empty());
+        when(postService.getPostVersion(anyLong())).thenReturn(Optional.empty());
 
         mockMvc.perform(get("/api/posts/100500"))
                 .andExpect(status().isNotFound());
 
-        verify(postService, times(1)).getPost(100500);
+        verify(postService, times(1)).getPostVersion(100500);
         verifyNoMoreInteractions(postService, commentService);
     }
 
@@ -138,7 +242,7 @@ public class PostControllerTest {
                     "tags": ["tag1", "tag2"]
                   }
                 """;
-        when(postService.createPost(any())).thenReturn(new PostDTO(1, "Заголовок", "Текст", Set.of("tag1", "tag2"), 0, 0));
+        when(postService.createPost(any())).thenReturn(new PostDTO(1, "Заголовок", "Текст", Set.of("tag1", "tag2"), 0, 0, null));
 
         mockMvc.perform(post("/api/posts")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -184,7 +288,7 @@ public class PostControllerTest {
                     "tags": ["tag3", "tag4"]
                   }
                 """;
-        when(postService.editPost(anyLong(), any())).thenReturn(new PostDTO(1L, "Новый заголовок", "Новый текст", Set.of("tag3", "tag4"), 0, 0));
+        when(postService.editPost(anyLong(), any())).thenReturn(new PostDTO(1L, "Новый заголовок", "Новый текст", Set.of("tag3", "tag4"), 0, 0, null));
 
         mockMvc.perform(put("/api/posts/1")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -280,11 +384,11 @@ public class PostControllerTest {
         var pngStub = new byte[]{(byte) 137, 80, 78, 71};
         var image = new MockMultipartFile("image", "image.png", MediaType.IMAGE_PNG_VALUE, pngStub);
 
-        doNothing().when(postService).uploadImage(anyLong(), any());
+        doNothing().when(postService).uploadImage(anyLong(), any(MultipartFile.class));
 
         mockMvc.perform(multipart(HttpMethod.PUT, "/api/posts/1/image")
                         .file(image))
-                .andExpect(status().isOk());
+                .andExpect(status().isAccepted());
 
         verify(postService, times(1)).uploadImage(1, image);
         verifyNoMoreInteractions(postService, commentService);
@@ -295,7 +399,7 @@ public class PostControllerTest {
         var pngStub = new byte[]{(byte) 137, 80, 78, 71};
         var image = new MockMultipartFile("image", "image.png", MediaType.IMAGE_PNG_VALUE, pngStub);
 
-        doThrow(new PostNotFoundException(100500L)).when(postService).uploadImage(anyLong(), any());
+        doThrow(new PostNotFoundException(100500L)).when(postService).uploadImage(anyLong(), any(MultipartFile.class));
 
         mockMvc.perform(multipart(HttpMethod.PUT, "/api/posts/1/image")
                         .file(image))
@@ -305,46 +409,260 @@ public class PostControllerTest {
         verifyNoMoreInteractions(postService, commentService);
     }
 
+    @Test
+    void uploadImage_tooLarge() throws Exception {
+        var image = new MockMultipartFile("image", "image.png", MediaType.IMAGE_PNG_VALUE, new byte[]{(byte) 137, 80, 78, 71});
+
+        doThrow(new ImageTooLargeException(3)).when(postService).uploadImage(anyLong(), any(MultipartFile.class));
+
+        mockMvc.perform(multipart(HttpMethod.PUT, "/api/posts/1/image")
+                        .file(image))
+                .andExpect(status().isPayloadTooLarge());
+    }
+
+    @Test
+    void uploadImageStream_ok() throws Exception {
+        var pngStub = new byte[]{(byte) 137, 80, 78, 71};
+
+        doAnswer(invocation -> {
+            assertArrayEquals(pngStub, invocation.getArgument(1, InputStream.class).readAllBytes());
+            return null;
+        }).when(postService).uploadImage(anyLong(), any(InputStream.class));
+
+        mockMvc.perform(put("/api/posts/1/image")
+                        .contentType(MediaType.IMAGE_PNG)
+                        .content(pngStub))
+                .andExpect(status().isAccepted());
+
+        verify(postService, times(1)).uploadImage(eq(1L), any(InputStream.class));
+        verifyNoMoreInteractions(postService, commentService);
+    }
+
+    @Test
+    void uploadImageStream_tooLarge() throws Exception {
+        doThrow(new ImageTooLargeException(3)).when(postService).uploadImage(anyLong(), any(InputStream.class));
+
+        mockMvc.perform(put("/api/posts/1/image")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(new byte[]{1, 2, 3, 4}))
+                .andExpect(status().isPayloadTooLarge());
+    }
+
+    @Test
+    void uploadImageStream_queueFull() throws Exception {
+        doThrow(new ImageQueueFullException(1)).when(postService).uploadImage(anyLong(), any(InputStream.class));
+
+        mockMvc.perform(put("/api/posts/1/image")
+                        .contentType(MediaType.IMAGE_PNG)
+                        .content(new byte[]{1, 2, 3, 4}))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    void getImageStatus_ok() throws Exception {
+        var imageUuid = UUID.randomUUID();
+
+        when(postService.getImageStatus(anyLong())).thenReturn(Optional.of(new ImageJobStatusDTO(imageUuid, ImageJobStatusDTO.State.PROCESSING, null)));
+
+        mockMvc.perform(get("/api/posts/1/image/status"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.imageUuid").value(imageUuid.toString()))
+                .andExpect(jsonPath("$.state").value("PROCESSING"));
+
+        verify(postService, times(1)).getImageStatus(1);
+        verifyNoMoreInteractions(postService, commentService);
+    }
+
+    @Test
+    void getImageStatus_noImage() throws Exception {
+        when(postService.getImageStatus(anyLong())).thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/api/posts/1/image/status"))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     void downloadImage_ok() throws Exception {
         var pngStub = new byte[]{(byte) 137, 80, 78, 71};
         var image = new ByteArrayResource(pngStub);
+        var imageUuid = UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089");
 
-        when(postService.getImage(anyLong())).thenReturn(Optional.of(image));
+        when(postService.getImageUuid(anyLong())).thenReturn(Optional.of(imageUuid));
+        when(postService.getImage(any(UUID.class), any(ImageVariant.class))).thenReturn(new ImageDTO(image, MediaType.IMAGE_PNG_VALUE, ImageVariant.ORIGINAL));
 
         mockMvc.perform(get("/api/posts/1/image"))
                 .andExpect(status().isOk())
-                .andExpect(content().contentType(MediaType.APPLICATION_OCTET_STREAM_VALUE))
+                .andExpect(content().contentType(MediaType.IMAGE_PNG_VALUE))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, pngStub.length))
+                .andExpect(header().string("X-Content-Type-Options", "nosniff"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"%s\"".formatted(imageUuid)))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"))
                 .andExpect(content().bytes(pngStub));
 
-        verify(postService, times(1)).getImage(1);
+        verify(postService, times(1)).getImageUuid(1);
+        verify(postService, times(1)).getImage(imageUuid, ImageVariant.ORIGINAL);
+        verifyNoMoreInteractions(postService, commentService);
+    }
+
+    @Test
+    void downloadImage_imageUrlFromPostIsImmutable() throws Exception {
+        var imageUuid = UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089");
+        var postDTO = Mappers.getMapper(PostMapper.class)
+                .toDTO(new Post(1L, "Заголовок", "Текст", 0, 0, imageUuid, Set.of("tag1"), false));
+
+        when(postService.getPostVersion(anyLong())).thenReturn(Optional.of("42"));
+        when(postService.getPost(anyLong())).thenReturn(Optional.of(postDTO));
+        when(postService.getImageUuid(anyLong())).thenReturn(Optional.of(imageUuid));
+        when(postService.getImage(any(UUID.class), any(ImageVariant.class))).thenReturn(new ImageDTO(new ByteArrayResource(new byte[]{1}), MediaType.IMAGE_PNG_VALUE, ImageVariant.ORIGINAL));
+
+        var postJson = mockMvc.perform(get("/api/posts/1"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+        String imageUrl = JsonPath.read(postJson, "$.imageUrl");
+
+        mockMvc.perform(get(imageUrl))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"%s\"".formatted(imageUuid)))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")));
+
+        verify(postService, times(1)).getImageUuid(1);
+    }
+
+    @Test
+    void downloadImage_versionedImmutable() throws Exception {
+        var imageUuid = UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089");
+
+        when(postService.getImageUuid(anyLong())).thenReturn(Optional.of(imageUuid));
+        when(postService.getImage(any(UUID.class), any(ImageVariant.class))).thenReturn(new ImageDTO(new ByteArrayResource(new byte[]{1}), MediaType.IMAGE_PNG_VALUE, ImageVariant.ORIGINAL));
+
+        mockMvc.perform(get("/api/posts/1/image")
+                        .queryParam("v", imageUuid.toString()))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")));
+    }
+
+    @Test
+    void downloadImage_range() throws Exception {
+        var pngStub = new byte[]{(byte) 137, 80, 78, 71};
+        var imageUuid = UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089");
+
+        when(postService.getImageUuid(anyLong())).thenReturn(Optional.of(imageUuid));
+        when(postService.getImage(any(UUID.class), any(ImageVariant.class))).thenReturn(new ImageDTO(new ByteArrayResource(pngStub), MediaType.IMAGE_PNG_VALUE, ImageVariant.ORIGINAL));
+
+        mockMvc.perform(get("/api/posts/1/image")
+                        .header(HttpHeaders.RANGE, "bytes=1-2"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 1-2/4"))
+                .andExpect(content().bytes(new byte[]{80, 78}));
+    }
+
+    @Test
+    void downloadImage_sendfile(@TempDir Path tempDir) throws Exception {
+        var pngStub = new byte[]{(byte) 137, 80, 78, 71};
+        var imageUuid = UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089");
+        var imagePath = Files.write(tempDir.resolve(imageUuid.toString()), pngStub);
+
+        when(postService.getImageUuid(anyLong())).thenReturn(Optional.of(imageUuid));
+        when(postService.getImage(any(UUID.class), any(ImageVariant.class))).thenReturn(new ImageDTO(new FileSystemResource(imagePath), MediaType.IMAGE_PNG_VALUE, ImageVariant.ORIGINAL));
+
+        mockMvc.perform(get("/api/posts/1/image")
+                        .requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.IMAGE_PNG_VALUE))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, pngStub.length))
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.filename", imagePath.toFile().getCanonicalPath()))
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.start", 0L))
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.end", (long) pngStub.length))
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    void downloadImage_thumb() throws Exception {
+        var thumbStub = new byte[]{(byte) 255, (byte) 216, (byte) 255};
+        var imageUuid = UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089");
+
+        when(postService.getImageUuid(anyLong())).thenReturn(Optional.of(imageUuid));
+        when(postService.getImage(any(UUID.class), any(ImageVariant.class))).thenReturn(new ImageDTO(new ByteArrayResource(thumbStub), MediaType.IMAGE_JPEG_VALUE, ImageVariant.THUMB));
+
+        mockMvc.perform(get("/api/posts/1/image")
+                        .queryParam("size", "thumb")
+                        .queryParam("v", imageUuid.toString()))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.IMAGE_JPEG_VALUE))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"%s-thumb\"".formatted(imageUuid)))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")))
+                .andExpect(content().bytes(thumbStub));
+
+        verify(postService, times(1)).getImageUuid(1);
+        verify(postService, times(1)).getImage(imageUuid, ImageVariant.THUMB);
+        verifyNoMoreInteractions(postService, commentService);
+    }
+
+    @Test
+    void downloadImage_thumbNotReady() throws Exception {
+        var imageUuid = UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089");
+
+        when(postService.getImageUuid(anyLong())).thenReturn(Optional.of(imageUuid));
+        when(postService.getImage(any(UUID.class), any(ImageVariant.class))).thenReturn(new ImageDTO(new ByteArrayResource(new byte[]{1}), MediaType.IMAGE_PNG_VALUE, ImageVariant.ORIGINAL));
+
+        mockMvc.perform(get("/api/posts/1/image")
+                        .queryParam("size", "thumb")
+                        .queryParam("v", imageUuid.toString()))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"%s\"".formatted(imageUuid)))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"));
+    }
+
+    @Test
+    void downloadImage_unknownSize() throws Exception {
+        mockMvc.perform(get("/api/posts/1/image")
+                        .queryParam("size", "huge"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(postService, commentService);
+    }
+
+    @Test
+    void downloadImage_notModified() throws Exception {
+        var imageUuid = UUID.fromString("3829bee5-8701-4368-8dc2-9c07a782d089");
+
+        when(postService.getImageUuid(anyLong())).thenReturn(Optional.of(imageUuid));
+
+        mockMvc.perform(get("/api/posts/1/image")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"%s\"".formatted(imageUuid)))
+                .andExpect(status().isNotModified());
+
+        verify(postService, times(1)).getImageUuid(1);
         verifyNoMoreInteractions(postService, commentService);
     }
 
     @Test
     void downloadImage_empty() throws Exception {
-        when(postService.getImage(anyLong())).thenReturn(Optional.empty());
+        when(postService.getImageUuid(anyLong())).thenReturn(Optional.empty());
 
         mockMvc.perform(get("/api/posts/1/image"))
                 .andExpect(status().isNotFound());
 
-        verify(postService, times(1)).getImage(1);
+        verify(postService, times(1)).getImageUuid(1);
         verifyNoMoreInteractions(postService, commentService);
     }
 
     @Test
     void downloadImage_notPostFound() throws Exception {
-        when(postService.getImage(anyLong())).thenThrow(new PostNotFoundException(100500L));
+        when(postService.getImageUuid(anyLong())).thenThrow(new PostNotFoundException(100500L));
 
         mockMvc.perform(get("/api/posts/100500/image"))
                 .andExpect(status().isNotFound());
 
-        verify(postService, times(1)).getImage(100500L);
+        verify(postService, times(1)).getImageUuid(100500L);
         verifyNoMoreInteractions(postService, commentService);
     }
 
     @Test
     void getComments_ok() throws Exception {
+        when(commentService.getCommentsVersion(anyLong())).thenReturn(7L);
         when(commentService.getByPostId(anyLong())).thenReturn(List.of(new CommentDTO(1, 1, "Коммент 1"), new CommentDTO(2, 1, "Коммент 2")));
 
         mockMvc.perform(get("/api/posts/1/comments"))
@@ -355,12 +673,113 @@ public class PostControllerTest {
                 .andExpect(jsonPath("$[0].id").value(1))
                 .andExpect(jsonPath("$[0].text").value("Коммент 1"))
                 .andExpect(jsonPath("$[1].id").value(2))
-                .andExpect(jsonPath("$[1].text").value("Коммент 2"));
+                .andExpect(jsonPath("$[1].text").value("Коммент 2"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"comments-1-7\""));
 
+        verify(commentService, times(1)).getCommentsVersion(1L);
         verify(commentService, times(1)).getByPostId(1L);
         verifyNoMoreInteractions(postService, commentService);
     }
 
+    @Test
+    void getComments_page() throws Exception {
+        when(commentService.getCommentsVersion(anyLong())).thenReturn(7L);
+        when(commentService.getByPostIdAfter(anyLong(), any(), anyInt())).thenReturn(List.of(new CommentDTO(3, 1, "Коммент 3")));
+
+        mockMvc.perform(get("/api/posts/1/comments").param("after", "2").param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(3));
+
+        verify(commentService, times(1)).getCommentsVersion(1L);
+        verify(commentService, times(1)).getByPostIdAfter(1L, 2L, 1);
+        verifyNoMoreInteractions(postService, commentService);
+    }
+
+    @Test
+    void getComments_invalidLimit() throws Exception {
+        mockMvc.perform(get("/api/posts/1/comments").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(commentService);
+    }
+
+    @Test
+    void getComments_stream() throws Exception {
+        when(commentService.getCommentsVersion(anyLong())).thenReturn(7L);
+        doAnswer(invocation -> {
+            Consumer<CommentDTO> consumer = invocation.getArgument(1);
+            consumer.accept(new CommentDTO(1, 1, "Коммент 1"));
+            consumer.accept(new CommentDTO(2, 1, "Коммент 2"));
+            return null;
+        }).when(commentService).streamByPostId(anyLong(), any());
+
+        var mvcResult = mockMvc.perform(get("/api/posts/1/comments").param("stream", "true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[1].text").value("Коммент 2"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"comments-1-7\""));
+
+        verify(commentService, times(1)).streamByPostId(eq(1L), any());
+    }
+
+    @Test
+    void getComments_streamNotFound() throws Exception {
+        when(commentService.getCommentsVersion(anyLong())).thenThrow(new PostNotFoundException(1L));
+
+        mockMvc.perform(get("/api/posts/1/comments").param("stream", "true"))
+                .andExpect(status().isNotFound());
+
+        verify(commentService, never()).streamByPostId(anyLong(), any());
+    }
+
+    @Test
+    void importComments_ok() throws Exception {
+        var ndjson = "{\"text\": \"Коммент 1\"}\n{\"text\": \"Коммент 2\"}\n";
+
+        doAnswer(invocation -> {
+            assertArrayEquals(ndjson.getBytes(StandardCharsets.UTF_8), invocation.getArgument(1, InputStream.class).readAllBytes());
+            return List.of(new CommentImportChunkDTO(1, 1, 2, 2, 0, null));
+        }).when(commentService).importComments(anyLong(), any(InputStream.class), anyInt());
+
+        mockMvc.perform(post("/api/posts/1/comments/import")
+                        .param("chunkSize", "500")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(ndjson.getBytes(StandardCharsets.UTF_8)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].imported").value(2))
+                .andExpect(jsonPath("$[0].rejected").value(0));
+
+        verify(commentService, times(1)).importComments(eq(1L), any(InputStream.class), eq(500));
+        verifyNoMoreInteractions(postService, commentService);
+    }
+
+    @Test
+    void importComments_invalidChunkSize() throws Exception {
+        mockMvc.perform(post("/api/posts/1/comments/import")
+                        .param("chunkSize", "0")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{}"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(commentService);
+    }
+
+    @Test
+    void importComments_notFound() throws Exception {
+        when(commentService.importComments(anyLong(), any(InputStream.class), anyInt())).thenThrow(new PostNotFoundException(1L));
+
+        mockMvc.perform(post("/api/posts/1/comments/import")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"text\": \"Коммент\"}"))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     void getComments_empty() throws Exception {
         when(commentService.getByPostId(anyLong())).thenReturn(Collections.emptyList());
@@ -370,18 +789,31 @@ public class PostControllerTest {
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON))
                 .andExpect(content().string("[]"));
 
+        verify(commentService, times(1)).getCommentsVersion(1L);
         verify(commentService, times(1)).getByPostId(1L);
         verifyNoMoreInteractions(postService, commentService);
     }
 
+    @Test
+    void getComments_notModified() throws Exception {
+        when(commentService.getCommentsVersion(anyLong())).thenReturn(7L);
+
+        mockMvc.perform(get("/api/posts/1/comments")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"comments-1-7\""))
+                .andExpect(status().isNotModified());
+
+        verify(commentService, times(1)).getCommentsVersion(1L);
+        verifyNoMoreInteractions(postService, commentService);
+    }
+
     @Test
     void getComments_notFound() throws Exception {
-        when(commentService.getByPostId(anyLong())).thenThrow(new PostNotFoundException(100500));
+        when(commentService.getCommentsVersion(anyLong())).thenThrow(new PostNotFoundException(100500));
 
         mockMvc.perform(get("/api/posts/100500/comments"))
                 .andExpect(status().isNotFound());
 
-        verify(commentService, times(1)).getByPostId(100500L);
+        verify(commentService, times(1)).getCommentsVersion(100500L);
         verifyNoMoreInteractions(postService, commentService);
     }
 
@@ -489,8 +921,7 @@ public class PostControllerTest {
                     "postId": 1
                 }
                 """;
-        when(commentService.getComment(anyLong())).thenReturn(Optional.of(new CommentDTO(1, 1, "Старый комментарий")));
-        when(commentService.editComment(anyLong(), any())).thenReturn(new CommentDTO(1, 1, "Новый комментарий"));
+        when(commentService.editComment(anyLong(), anyLong(), any())).thenReturn(new CommentDTO(1, 1, "Новый комментарий"));
 
         mockMvc.perform(put("/api/posts/1/comments/1")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -501,8 +932,7 @@ public class PostControllerTest {
                 .andExpect(jsonPath("$.postId").value(1))
                 .andExpect(jsonPath("$.text").value("Новый комментарий"));
 
-        verify(commentService, times(1)).getComment(1L);
-        verify(commentService, times(1)).editComment(1L, new CommentDataDTO("Новый комментарий"));
+        verify(commentService, times(1)).editComment(1L, 1L, new CommentDataDTO("Новый комментарий"));
         verifyNoMoreInteractions(postService, commentService);
     }
 
@@ -532,14 +962,14 @@ public class PostControllerTest {
                     "postId": 1
                 }
                 """;
-        when(commentService.getComment(anyLong())).thenReturn(Optional.of(new CommentDTO(1, 100500, "Старый комментарий")));
+        when(commentService.editComment(anyLong(), anyLong(), any())).thenThrow(new CommentNotFoundException(1));
 
         mockMvc.perform(put("/api/posts/1/comments/1")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(commentDataJson))
                 .andExpect(status().isNotFound());
 
-        verify(commentService, times(1)).getComment(1L);
+        verify(commentService, times(1)).editComment(1L, 1L, new CommentDataDTO("Новый комментарий"));
         verifyNoMoreInteractions(postService, commentService);
     }
 
@@ -552,16 +982,14 @@ public class PostControllerTest {
                     "postId": 1
                 }
                 """;
-        when(commentService.getComment(anyLong())).thenReturn(Optional.empty());
-        when(commentService.editComment(anyLong(), any())).thenThrow(new CommentNotFoundException(100500));
+        when(commentService.editComment(anyLong(), anyLong(), any())).thenThrow(new CommentNotFoundException(100500));
 
         mockMvc.perform(put("/api/posts/1/comments/100500")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(commentDataJson))
                 .andExpect(status().isNotFound());
 
-        verify(commentService, times(1)).getComment(100500L);
-        verify(commentService, times(1)).editComment(100500L, new CommentDataDTO("Новый комментарий"));
+        verify(commentService, times(1)).editComment(1L, 100500L, new CommentDataDTO("Новый комментарий"));
         verifyNoMoreInteractions(postService, commentService);
     }
 
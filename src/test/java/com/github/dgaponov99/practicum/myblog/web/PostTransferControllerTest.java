@@ -0,0 +1,99 @@
+package com.github.dgaponov99.practicum.myblog.web;
+
+import com.github.dgaponov99.practicum.myblog.config.WebTestConfig;
+import com.github.dgaponov99.practicum.myblog.dto.PostImportResultDTO;
+import com.github.dgaponov99.practicum.myblog.service.PostTransferService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebAppConfiguration
+@SpringJUnitConfig(classes = {WebTestConfig.class})
+public class PostTransferControllerTest {
+
+    @Autowired
+    private WebApplicationContext wac;
+
+    @Autowired
+    private PostTransferService postTransferService;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(wac).build();
+        reset(postTransferService);
+    }
+
+    @Test
+    void exportPosts_ok() throws Exception {
+        var ndjson = "{\"id\":1,\"title\":\"Заголовок\",\"text\":\"Текст\",\"tags\":[],\"likesCount\":0,\"comments\":[]}\n";
+        doAnswer(invocation -> {
+            invocation.getArgument(0, OutputStream.class).write(ndjson.getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(postTransferService).exportPosts(any());
+
+        var mvcResult = mockMvc.perform(get("/api/admin/posts/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, containsString("posts.ndjson")))
+                .andExpect(content().bytes(ndjson.getBytes(StandardCharsets.UTF_8)));
+
+        verify(postTransferService, times(1)).exportPosts(any());
+    }
+
+    @Test
+    void importPosts_ok() throws Exception {
+        var ndjson = "{\"title\":\"Заголовок\",\"text\":\"Текст\",\"comments\":[{\"text\":\"Коммент\"}]}\n";
+
+        doAnswer(invocation -> {
+            assertArrayEquals(ndjson.getBytes(StandardCharsets.UTF_8), invocation.getArgument(0, InputStream.class).readAllBytes());
+            return new PostImportResultDTO(1, 1, 1, 0, 0, null);
+        }).when(postTransferService).importPosts(any(InputStream.class), anyInt());
+
+        mockMvc.perform(post("/api/admin/posts/import")
+                        .param("batchSize", "100")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(ndjson.getBytes(StandardCharsets.UTF_8)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.importedPosts").value(1))
+                .andExpect(jsonPath("$.importedComments").value(1))
+                .andExpect(jsonPath("$.error").doesNotExist());
+
+        verify(postTransferService, times(1)).importPosts(any(InputStream.class), eq(100));
+        verifyNoMoreInteractions(postTransferService);
+    }
+
+    @Test
+    void importPosts_invalidBatchSize() throws Exception {
+        mockMvc.perform(post("/api/admin/posts/import")
+                        .param("batchSize", "0")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{}"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(postTransferService);
+    }
+
+}